@@ -0,0 +1,89 @@
+package io.nms.agent.message;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.nms.agent.message.ResultTable.ColumnType;
+
+/*
+ * Compares the shared readers/writers of MessageCodec with the former
+ * per-call ObjectMapper path, on a Specification and a Result
+ * Run with: mvn -Pjmh compile exec:exec
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageCodecBenchmark {
+	private final static String SPECIFICATION = "{\"specification\":\"measure\",\"name\":\"network\","
+			+ "\"endpoint\":\"client/module\",\"when\":\"now ... 1792340356701 / 5000\",\"token\":\"t0k3n\","
+			+ "\"parameters\":{\"itfName\":\"\",\"publish.overflow\":\"coalesce\"},"
+			+ "\"results\":[\"name\",\"bytesrcvd.kb\",\"bytessent.kb\",\"bytesrcvd.kbps\",\"bytessent.kbps\"]}";
+
+	private Result result;
+
+	@Setup
+	public void setup() {
+		Message spec = Message.fromJsonString(SPECIFICATION);
+		Map<String, ColumnType> types = new HashMap<String, ColumnType>();
+		types.put("bytesrcvd.kb", ColumnType.LONG);
+		types.put("bytessent.kb", ColumnType.LONG);
+		types.put("bytesrcvd.kbps", ColumnType.DOUBLE);
+		types.put("bytessent.kbps", ColumnType.DOUBLE);
+		ResultTable table = new ResultTable(spec.getResults(), types);
+		for (int i = 0; i < 16; i++) {
+			int row = table.addRow();
+			table.setString(row, 0, "eth" + i);
+			table.setLong(row, 1, 1000000L * i);
+			table.setLong(row, 2, 2000000L * i);
+			table.setDouble(row, 3, 12.5 * i);
+			table.setDouble(row, 4, 25.0 * i);
+		}
+		result = new Result(spec);
+		result.setResultTable(table);
+		result.setTimestampNow();
+	}
+
+	@Benchmark
+	public Message decodeCached() {
+		return MessageCodec.decode(SPECIFICATION);
+	}
+
+	// as Message.fromJsonString did before MessageCodec
+	@Benchmark
+	public Message decodePerCall() throws IOException {
+		ObjectMapper mapper = new ObjectMapper();
+		if (SPECIFICATION.contains("specification")) {
+			return mapper.readValue(SPECIFICATION, Specification.class);
+		}
+		return null;
+	}
+
+	@Benchmark
+	public String encodeCached() {
+		return MessageCodec.encodeToString(result, false);
+	}
+
+	// as Message.toJsonString did before MessageCodec
+	@Benchmark
+	public String encodePerCall() throws IOException {
+		return new ObjectMapper().writeValueAsString(result);
+	}
+}
@@ -0,0 +1,139 @@
+package io.nms.agent.sysinfo;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import oshi.SystemInfo;
+import oshi.hardware.CentralProcessor;
+import oshi.hardware.GlobalMemory;
+import oshi.hardware.HWDiskStore;
+import oshi.hardware.HardwareAbstractionLayer;
+import oshi.hardware.NetworkIF;
+import oshi.util.GlobalConfig;
+
+/*
+ * Per-sample cost of the /proc readers of the cpu, memory, network and disk probes,
+ * against the OSHI calls they replace (steady state: updateAttributes on kept objects,
+ * refresh: the object graphs rebuilt)
+ * OSHI memoization is disabled: at sub-second periods each sample has to read the system.
+ * Linux only. Run with: mvn -Pjmh compile exec:exec -Djmh.include=ProcSamplingBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcSamplingBenchmark {
+	private ProcStat procStat;
+	private ProcMeminfo procMeminfo;
+	private ProcNetDev procNetDev;
+	private ProcDiskstats procDiskstats;
+	private final long[] ticks = new long[ProcStat.TICKS];
+	private final long[] memory = new long[2];
+
+	private HardwareAbstractionLayer hal;
+	private CentralProcessor cpu;
+	private List<NetworkIF> netIfs;
+	private List<HWDiskStore> diskStores;
+
+	@Setup
+	public void setup() {
+		procStat = ProcStat.getInstance();
+		procMeminfo = ProcMeminfo.getInstance();
+		procNetDev = ProcNetDev.getInstance();
+		procDiskstats = ProcDiskstats.getInstance();
+		if (procStat == null || procMeminfo == null || procNetDev == null || procDiskstats == null) {
+			throw new IllegalStateException("/proc is not readable, Linux only");
+		}
+		GlobalConfig.set("oshi.util.memoizer.expiration", 0);
+		hal = new SystemInfo().getHardware();
+		cpu = hal.getProcessor();
+		netIfs = hal.getNetworkIFs();
+		diskStores = hal.getDiskStores();
+	}
+
+	@Benchmark
+	public long cpuProc() {
+		return procStat.sample(ticks) + ticks[ProcStat.IDLE];
+	}
+
+	@Benchmark
+	public long cpuOshi() {
+		return cpu.getSystemCpuLoadTicks()[CentralProcessor.TickType.IDLE.getIndex()] + cpu.getContextSwitches();
+	}
+
+	@Benchmark
+	public long memoryProc() {
+		procMeminfo.sample(memory);
+		return memory[ProcMeminfo.AVAILABLE_BYTES];
+	}
+
+	@Benchmark
+	public long memoryOshi() {
+		GlobalMemory gm = hal.getMemory();
+		return gm.getAvailable() + gm.getTotal();
+	}
+
+	@Benchmark
+	public long networkProc() {
+		procNetDev.sample();
+		long bytes = 0;
+		for (int r = 0; r < procNetDev.size(); r++) {
+			bytes += procNetDev.get(r, ProcNetDev.RX_BYTES);
+		}
+		return bytes;
+	}
+
+	@Benchmark
+	public long networkOshi() {
+		long bytes = 0;
+		for (NetworkIF nif : netIfs) {
+			nif.updateAttributes();
+			bytes += nif.getBytesRecv();
+		}
+		return bytes;
+	}
+
+	@Benchmark
+	public void networkOshiRefresh(Blackhole bh) {
+		bh.consume(hal.getNetworkIFs());
+	}
+
+	@Benchmark
+	public long diskProc() {
+		procDiskstats.sample();
+		long reads = 0;
+		for (int r = 0; r < procDiskstats.size(); r++) {
+			reads += procDiskstats.get(r, ProcDiskstats.READS);
+		}
+		return reads;
+	}
+
+	@Benchmark
+	public long diskOshi() {
+		long reads = 0;
+		for (HWDiskStore disk : diskStores) {
+			disk.updateAttributes();
+			reads += disk.getReads();
+		}
+		return reads;
+	}
+
+	@Benchmark
+	public void diskOshiRefresh(Blackhole bh) {
+		bh.consume(hal.getDiskStores());
+	}
+}
@@ -1,16 +1,23 @@
 package io.nms.agent.common;
 
+import java.io.File;
+import java.io.IOException;
+
+import io.nms.agent.message.ResultChunkWriter;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
+import io.vertx.core.json.JsonObject;
 
 /*
  * Agent Verticle with AMQP and base operations
  * Extends AmqpVerticle 
  * Deployment sequence:
  * - create local Capabilities
- * - create AMQP connection
+ * - start disconnected, Results are queued or spooled
+ * - create AMQP connection, retried with backoff while the broker is unreachable
  * - publish Capabilities
  * - listen to Specifications
+ * - reconnect and resubscribe if the connection is lost
  */
 public class AmqpAgentVerticle extends AmqpVerticle {
 	
@@ -27,30 +34,63 @@ public class AmqpAgentVerticle extends AmqpVerticle {
 		
 		moduleConfig = config().getJsonObject("config");
 		
+		JsonObject spooling = config().getJsonObject("amqp").getJsonObject("spool", new JsonObject());
+		if (spooling.getBoolean("enabled", false)) {
+			try {
+				spool = new ResultSpool(vertx, 
+						new File(spooling.getString("dir", "spool"), moduleName), spooling);
+			} catch (IOException e) {
+				LOG.error("Unable to open the results spool", e);
+			}
+		}
+		
+		JsonObject batching = config().getJsonObject("amqp").getJsonObject("batching", new JsonObject());
+		if (batching.getBoolean("enabled", false)) {
+			resultBatcher = new ResultBatcher(vertx, batching, (endpoint, encoding, batch) -> {
+				Promise<Void> pub = Promise.promise();
+				pub.future().onComplete(pubRes -> {
+					if (pubRes.failed()) {
+						LOG.info("Failed to publish batch of results.");
+					}
+				});
+				publishResult(endpoint, null, OverflowPolicy.DROP_OLDEST, encoding, batch, pub);
+			});
+		}
+		
+		JsonObject chunking = config().getJsonObject("amqp").getJsonObject("chunking", new JsonObject());
+		resultWriter = new ResultChunkWriter(
+				chunking.getInteger("maxBytes", ResultChunkWriter.DEFAULT_CHUNK_BYTES));
+		
+		if (host.isEmpty() || (port <= 0)) {
+			fut.fail("Wrong AMQP parameters");
+			return;
+		}
+		createSenders();
+		reconnector = new ReconnectSupervisor(vertx, 
+				config().getJsonObject("amqp").getJsonObject("reconnect", new JsonObject()), 
+				promise -> reconnect(promise));
+		
 		Future<Void> futConn = Future.future(promise -> initModule(promise));
 		Future<Void> futInit = futConn
 			.compose(v -> {
 				return Future.<Void>future(promise -> createCapabilities(promise));
-			})
-			.compose(v -> {
-				return Future.<Void>future(promise -> createAmqpConnection(promise));
-			})
-			.compose(v -> {
-				return Future.<Void>future(promise -> publishCapabilities(promise));
-			})
-			.compose(v -> {
-				return Future.<Void>future(promise -> subscribeToSpecifications2(promise));
 			});
 			futInit.onComplete(res -> {
 				if (res.failed()) {
 					fut.fail(res.cause());
 				} else {
 					vertx.setPeriodic(heartbeatMs, id -> {
+						if (!connected) {
+							return;
+						}
 				    	Future<Void> capsFut = Future.future(promise -> publishCapabilities(promise));
 				    	capsFut.onComplete(r -> {
 					        LOG.info("Capabilities updated.");
 					    });
+				    	publishStatus(collectStats().encode(), Promise.promise());
 					});
+					// connects, publishes Capabilities and subscribes once the broker is reachable
+					reconnector.connect();
 					fut.complete();
 				}
 			});
@@ -2,8 +2,11 @@ package io.nms.agent.common;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import io.nms.agent.message.Capability;
+import io.nms.agent.message.Encoding;
 import io.nms.agent.message.Message;
 import io.vertx.amqp.AmqpClient;
 import io.vertx.amqp.AmqpClientOptions;
@@ -14,6 +17,8 @@ import io.vertx.amqp.AmqpSender;
 import io.vertx.core.CompositeFuture;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
 
 /*
  * AMQP operations of Agent
@@ -25,7 +30,21 @@ public abstract class AmqpVerticle extends BaseAgentVerticle {
 	protected String host = "";
 	protected int port = 0; 
 	
+	private AmqpClient client = null;
 	private AmqpConnection connection = null;
+	protected volatile boolean connected = false;
+	
+	// restores the connection when lost
+	protected ReconnectSupervisor reconnector = null;
+	
+	// open senders, reused across messages
+	protected SenderRegistry senders = null;
+	
+	// bounded queues of Results waiting for link credit, by address
+	protected Map<String, OutboundQueue> outbound = new ConcurrentHashMap<String, OutboundQueue>();
+	
+	// optional, keeps Results on disk while disconnected
+	protected ResultSpool spool = null;
 	
 	/* Create AMQP connection to the broker */
 	protected void createAmqpConnection(Promise<Void> promise) {
@@ -35,14 +54,35 @@ public abstract class AmqpVerticle extends BaseAgentVerticle {
 			AmqpClientOptions options = new AmqpClientOptions()
 				.setHost(host)
 				.setPort(port);
-			AmqpClient client = AmqpClient.create(options);
+			// drop what is left of a previous connection
+			if (connection != null) {
+				connection.close(ar -> {});
+				connection = null;
+			}
+			if (client != null) {
+				client.close(ar -> {});
+			}
+			client = AmqpClient.create(options);
 			client.connect(ar -> {
 				if (ar.failed()) {
 					LOG.error("Unable to connect to the messaging platform", ar.cause());
 					promise.fail(ar.cause());
 				} else {
 					LOG.info("Connected to the messaging platform.");
-					connection = ar.result();
+					AmqpConnection conn = ar.result();
+					connection = conn;
+					// events of a replaced connection are ignored
+					conn.exceptionHandler(err -> onConnectionLost(conn, err));
+					createSenders();
+					senders.setConnection(conn);
+					connected = true;
+					// resume Results queued while disconnected
+					for (OutboundQueue queue : outbound.values()) {
+						queue.pump();
+					}
+					if (spool != null) {
+						spool.startDrain(this::replayResult);
+					}
 					promise.complete();
 				}
 			});
@@ -51,6 +91,14 @@ public abstract class AmqpVerticle extends BaseAgentVerticle {
 		}
 	}
 	
+	/* Creates the sender registry, before any connection so that Results can be queued */
+	protected void createSenders() {
+		if (senders == null) {
+			senders = new SenderRegistry(vertx, config().getJsonObject("amqp")
+					.getJsonObject("senders", new JsonObject()));
+		}
+	}
+	
 	/* Agent is publisher. pub-sub for Agents to send Caps. to DSS */
 	protected void publishCapabilities(Promise<Void> promise) {		
 		List<Future> fCaps = new ArrayList<>();
@@ -68,7 +116,7 @@ public abstract class AmqpVerticle extends BaseAgentVerticle {
 			String sCap  = Message.toJsonString(c, false);
 			//JsonObject jCap = new JsonObject(sCap);
 			
-			connection.createSender("topic://"+"/capabilities", done -> {
+			senders.get("topic://"+"/capabilities", done -> {
 				if (done.failed()) {
 					p.fail(done.cause());
 				} else {
@@ -121,7 +169,7 @@ public abstract class AmqpVerticle extends BaseAgentVerticle {
 					if (req != null) {
 						Message rep = processMessage(req);
 						String receiptTopic = msg.replyTo();
-						connection.createSender(receiptTopic, done -> {
+						senders.get(receiptTopic, done -> {
 							if (done.failed()) {
 								LOG.error("Unable to publish receipts.", done.cause());
 							} else {
@@ -149,25 +197,94 @@ public abstract class AmqpVerticle extends BaseAgentVerticle {
 	}
 	
 	/* Agent is publisher. pub-sub for Agents to send Results */
-	protected void publishResult(String res, Promise<Void> promise) {
-		Message m = Message.fromJsonString(res);
-		connection.createSender("topic://"+m.getEndpoint()+"/results", done -> {
-			if (done.failed()) {
-				LOG.error("Unable to publish results.", done.cause());
-				promise.fail(done.cause());
-			} else {
-				AmqpSender sender = done.result();
-				AmqpMessage msg = AmqpMessage.create().withBody(res).build();
-				sender.send(msg);
-				sentRes+=1;
+	protected void publishResult(String endpoint, String schema, OverflowPolicy policy, 
+			Encoding encoding, Buffer res, Promise<Void> promise) {
+		if (!connected && (spool != null)) {
+			if (spool.append(endpoint, encoding, res)) {
 				promise.complete();
+			} else {
+				promise.fail("Unable to spool result");
 			}
-	    });
+			return;
+		}
+		// counted as sent once accepted by the broker
+		if (outboundQueue(endpoint).offer(schema, policy, encoding, res)) {
+			promise.complete();
+		} else {
+			promise.fail("Outbound queue full, result dropped");
+		}
+	}
+	
+	private OutboundQueue outboundQueue(String endpoint) {
+		return outbound.computeIfAbsent("topic://"+endpoint+"/results", 
+				address -> new OutboundQueue(address, senders, sentRes,
+						config().getJsonObject("amqp").getJsonObject("outbound", new JsonObject())));
+	}
+	
+	/* Sends a spooled Result, only when connected and without dropping queued ones */
+	private boolean replayResult(String endpoint, Encoding encoding, Buffer res) {
+		if (!connected) {
+			return false;
+		}
+		OutboundQueue queue = outboundQueue(endpoint);
+		if (!queue.accepts(res.length())) {
+			return false;
+		}
+		return queue.offer(null, OverflowPolicy.DROP_NEWEST, encoding, res);
+	}
+	
+	protected void onConnectionLost(AmqpConnection conn, Throwable err) {
+		if (conn != connection) {
+			return;
+		}
+		LOG.error("Connection to the messaging platform lost: " + err.getMessage());
+		connected = false;
+		senders.setConnection(null);
+		if (spool != null) {
+			spool.stopDrain();
+		}
+		if (reconnector != null) {
+			reconnector.connectionLost();
+		}
+	}
+	
+	/* (Re)connect to the broker, then publish Capabilities and subscribe to Specifications */
+	protected void reconnect(Promise<Void> promise) {
+		Future.<Void>future(p -> createAmqpConnection(p))
+			.compose(v -> Future.<Void>future(p -> publishCapabilities(p)))
+			.compose(v -> Future.<Void>future(p -> subscribeToSpecifications2(p)))
+			.onComplete(promise);
+	}
+	
+	/* Gathers the publishing stats */
+	protected JsonObject collectStats() {
+		JsonObject outboundStats = OutboundQueue.stats(outbound.values());
+		JsonObject stats = new JsonObject()
+			.put("agent", agentName)
+			.put("module", moduleName)
+			.put("connected", connected)
+			.put("receivedSpecs", rcvdSpecs.sum())
+			.put("sentResults", sentRes.sum())
+			.put("senders", senders.stats())
+			.put("outbound", outboundStats)
+			.put("droppedResults", outboundStats.getLong("dropped"))
+			.put("coalescedResults", outboundStats.getLong("coalesced"))
+			.put("scheduler", taskManager.stats());
+		if (reconnector != null) {
+			stats.put("reconnect", reconnector.stats());
+		}
+		if (spool != null) {
+			stats.put("spool", spool.stats());
+		}
+		if (resultBatcher != null) {
+			stats.put("batching", resultBatcher.stats());
+		}
+		return stats;
 	}
 	
 	/* Agent is publisher. pub-sub for Agents to send Status to DSS */
 	protected void publishStatus(String sta, Promise<Void> promise) {
-		connection.createSender("/status", done -> {
+		senders.get("/status", done -> {
 			LOG.info("Status: "+sta);
 			if (done.failed()) {
 				LOG.error("Unable to publish status.", done.cause());
@@ -176,6 +293,7 @@ public abstract class AmqpVerticle extends BaseAgentVerticle {
 				AmqpMessage msg = AmqpMessage.create().withBody(sta).build();
 				sender.send(msg);
 			}
+			promise.complete();
 	    });
 	}
 	
@@ -190,8 +308,22 @@ public abstract class AmqpVerticle extends BaseAgentVerticle {
 			}
 		});
 		futStop.onComplete(res -> {
+			if (reconnector != null) {
+				reconnector.stop();
+			}
+			if (resultBatcher != null) {
+				resultBatcher.flushAll();
+			}
 			LOG.info("AMQP connection closed.");
-			connection.close(stopFuture);
+			if (spool != null) {
+				spool.close();
+			}
+			senders.close();
+			if (connection != null) {
+				connection.close(stopFuture);
+			} else {
+				stopFuture.handle(Future.succeededFuture());
+			}
 		});
 	}
 
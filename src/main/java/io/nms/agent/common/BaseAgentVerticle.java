@@ -1,30 +1,39 @@
 package io.nms.agent.common;
 
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.nms.agent.constants.Errors;
+import io.nms.agent.constants.Parameters;
 import io.nms.agent.message.Capability;
+import io.nms.agent.message.Encoding;
 import io.nms.agent.message.Interrupt;
 import io.nms.agent.message.Message;
 import io.nms.agent.message.Receipt;
+import io.nms.agent.message.Recipient;
 import io.nms.agent.message.Result;
+import io.nms.agent.message.ResultChunkWriter;
 import io.nms.agent.message.Specification;
 import io.nms.agent.taskmanager.AbstractAgentTask;
 import io.nms.agent.taskmanager.AgentTaskListener;
 import io.nms.agent.taskmanager.TaskManager;
+import io.nms.agent.taskmanager.TaskRegistry;
 import io.vertx.core.AbstractVerticle;
 import io.vertx.core.Future;
 import io.vertx.core.Promise;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
@@ -38,8 +47,9 @@ public abstract class BaseAgentVerticle extends AbstractVerticle implements Agen
 	protected Logger LOG = LoggerFactory.getLogger(BaseAgentVerticle.class);
 	
 	// some stats
-	public static int rcvdSpecs = 0;
-	public static int sentRes = 0;
+	public static final LongAdder rcvdSpecs = new LongAdder();
+	// Results accepted by the broker
+	public static final LongAdder sentRes = new LongAdder();
 	protected JsonObject context = new JsonObject();
 	
 	/* metadata */
@@ -56,8 +66,8 @@ public abstract class BaseAgentVerticle extends AbstractVerticle implements Agen
 	// reference to task manager
 	protected TaskManager taskManager;
 	
-	// stores created Specification tasks
-	protected HashMap<String, AbstractAgentTask> tasks = new HashMap<String, AbstractAgentTask>();
+	// stores created Specification tasks, results come from the bulkhead threads
+	protected TaskRegistry tasks = new TaskRegistry();
 	
 	// task creators (constructors)
 	protected Map<String, Constructor<?>> taskCreators = new HashMap<String,Constructor<?>>();
@@ -65,14 +75,22 @@ public abstract class BaseAgentVerticle extends AbstractVerticle implements Agen
 	// stores available local capabilities
 	protected List<Capability> capabilities = new ArrayList<Capability>();
 	
+	// optional, groups Results per endpoint before publishing
+	protected ResultBatcher resultBatcher = null;
+	
+	// streams Results into chunks of bounded size
+	protected ResultChunkWriter resultWriter = new ResultChunkWriter(ResultChunkWriter.DEFAULT_CHUNK_BYTES);
+	
 	// child Verticle implements these to communicate
-	protected abstract void publishResult(String res, Promise<Void> prom);
+	protected abstract void publishResult(String endpoint, String schema, OverflowPolicy policy, 
+			Encoding encoding, Buffer res, Promise<Void> prom);
 	protected abstract void subscribeToSpecifications(Promise<Void> prom);
 	protected abstract void publishCapabilities(Promise<Void> prom);
 	
 	@Override
 	public void start() {
 		taskManager = TaskManager.getInstance();
+		taskManager.configure(config().getJsonObject("scheduler", new JsonObject()));
 	}
 	
 	// retrieve local capabilities and create their constructors
@@ -117,6 +135,7 @@ public abstract class BaseAgentVerticle extends AbstractVerticle implements Agen
 				rct.setTimestampNow();
 				return rct;
 			}
+			rcvdSpecs.increment();
 			return processSpecification(spec);
 		}
 		if (msg.getMsgType() == Message.Type.INTERRUPT) {			
@@ -144,6 +163,13 @@ public abstract class BaseAgentVerticle extends AbstractVerticle implements Agen
 			rct.setTimestampNow();
 			return rct;
 		}
+		if ((OverflowPolicy.fromValue(spec.getParameter(Parameters.OVERFLOW)) == null) 
+				|| (Encoding.fromValue(spec.getParameter(Parameters.ENCODING)) == null)) {
+			Message rct = new Receipt(spec);
+			rct.setErrors(Arrays.asList(Errors.Task.PARAM_UNSUPPORTED));
+			rct.setTimestampNow();
+			return rct;
+		}
 	
 		// use schema as task id
 		// create receipt to update schema (i.e., include parameters values)
@@ -152,22 +178,30 @@ public abstract class BaseAgentVerticle extends AbstractVerticle implements Agen
 		
 		LOG.info("Corresponding task found and checked: "+taskId);
 		
+		// a past window is complete: published once, after the receipt
+		if (task.isHistorical()) {
+			task.setTaskId(taskId);
+			Timestamp ts = new Timestamp(new Date().getTime());
+			vertx.runOnContext(v -> publish(task, taskId, ts,
+					Arrays.asList(new Recipient(spec.getEndpoint(), spec.getToken()))));
+			rct.setTimestampNow();
+			return rct;
+		}
+		
 		// for now, accept only periodic tasks
 		if (spec.isPeriodic()) {
 			
-			// if already exists, stop and remove
-			if (tasks.containsKey(taskId)) {
+			task.setTaskId(taskId);
+			task.registerTaskListener(this);
+			
+			// if already exists, only reference it
+			AbstractAgentTask running = tasks.acquire(taskId, spec.getEndpoint(), spec.getToken(), task);
+			if (running != task) {
 				LOG.info("Corresponding task already running.");
-				tasks.get(taskId).incrementSpecNbr();
-				//taskManager.cancel(taskId);
-				//tasks.remove(taskId);
+				// the new subscriber has not received the static columns
+				running.resendStaticColumns();
 			} else {
 				LOG.info("Create new task.");
-				// set new task
-				task.setTaskId(taskId);
-				task.registerTaskListener(this);
-				tasks.put(taskId, task);
-			
 				// schedule task and store reference
 				taskManager.submit(task, task.getInitialDelayMs(), task.getTaskPeriodMs());
 			}
@@ -184,12 +218,9 @@ public abstract class BaseAgentVerticle extends AbstractVerticle implements Agen
 		LOG.info("Process Interrupt.");
 		Message rct = new Receipt(itr);
 		String taskId = itr.getSchema();
-		if (tasks.containsKey(taskId)) {
-			if (tasks.get(taskId).decrementSpecNbr() == 0) {
-				LOG.info("Stop and remove task.");
-				taskManager.cancel(taskId);
-				tasks.remove(taskId);
-			}
+		if (tasks.release(taskId, itr.getEndpoint()) != null) {
+			LOG.info("Stop and remove task.");
+			taskManager.cancel(taskId);
 		}
 		rct.setTimestampNow();
 		return rct;
@@ -223,23 +254,52 @@ public abstract class BaseAgentVerticle extends AbstractVerticle implements Agen
 			return;
 		}
 		if (resultCode == Errors.TASK_SUCCESS) {
-			Message res = new Result(t.getSpecification());
-			res.setResultValues(t.getResultValues());
-			res.setTimestamp(ts.toString());
-			
-			final Promise<Void> pub = Promise.promise();
-			pub.future().onComplete(pubRes -> {
-				if (pubRes.succeeded()) {
-					LOG.info("Result published.");
-				} else {
-					LOG.info("Failed to publish result.");
-				}
-			});
-			publishResult(Message.toJsonString(res, false), pub);
+			// encoded once, published to every subscribed endpoint
+			publish(t, taskId, ts, tasks.recipients(taskId));
 		} else {
 			LOG.warn("Something went wrong with task " + taskId);
 		}
 	}
+	
+	// publishes the results of a task to its subscribers, each with its own endpoint and token
+	private void publish(AbstractAgentTask t, String taskId, Timestamp ts, List<Recipient> recipients) {
+		Result res = new Result(t.getSpecification());
+		// columns as published, e.g., aggregates
+		res.setResults(t.getResults().getColumnNames());
+		res.setResultTable(t.getResults());
+		res.setTimestamp(ts.toString());
+		
+		Encoding encoding = Encoding.fromValue(res.getParameter(Parameters.ENCODING));
+		OverflowPolicy policy = OverflowPolicy.fromValue(res.getParameter(Parameters.OVERFLOW));
+		try {
+			int chunks = resultWriter.write(res, encoding, recipients, (recipient, chunk, seq, last) -> {
+				// chunks of a Result must not replace each other
+				OverflowPolicy chunkPolicy = policy;
+				if (!(seq == 0 && last) && (policy == OverflowPolicy.COALESCE)) {
+					chunkPolicy = OverflowPolicy.DROP_OLDEST;
+				}
+				if (resultBatcher != null) {
+					resultBatcher.add(recipient.getEndpoint(), encoding, chunk);
+					return;
+				}
+				final Promise<Void> pub = Promise.promise();
+				pub.future().onComplete(pubRes -> {
+					if (pubRes.succeeded()) {
+						LOG.info("Result published.");
+					} else {
+						LOG.info("Failed to publish result.");
+					}
+				});
+				publishResult(recipient.getEndpoint(), taskId, chunkPolicy, encoding, chunk, pub);
+			});
+			if (chunks > 1) {
+				LOG.info("Result of task " + taskId + " sent in " + chunks + " chunks.");
+			}
+		} catch (IOException e) {
+			LOG.error("Unable to write result of task " + taskId, e);
+		}
+	}
+	
 	@Override
 	public void onFinished(String taskId) {
 		LOG.info("Task terminated: " + taskId);
@@ -260,6 +320,6 @@ public abstract class BaseAgentVerticle extends AbstractVerticle implements Agen
 				LOG.error("Error on stopping", e.getMessage());
 			}
 		});
-		taskManager.cancel(tasks.keySet(), futCancelTasks);
+		taskManager.cancel(tasks.schemas(), futCancelTasks);
 	}
 }
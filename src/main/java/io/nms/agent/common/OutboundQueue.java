@@ -0,0 +1,236 @@
+package io.nms.agent.common;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.nms.agent.message.Encoding;
+import io.vertx.amqp.AmqpMessage;
+import io.vertx.amqp.AmqpSender;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+
+/*
+ * Bounded queue of messages waiting to be sent to one address
+ * sends only while the sender has credit (i.e., its write queue is not full),
+ * and applies the OverflowPolicy of each message when the bound is reached.
+ * A message counts as sent once the broker accepts it.
+ */
+public class OutboundQueue {
+	private Logger LOG = LoggerFactory.getLogger(OutboundQueue.class);
+
+	public final static int DEFAULT_CAPACITY = 1000;
+	public final static int DEFAULT_MAX_BYTES = 1024 * 1024 * 4;
+
+	private final String address;
+	private final SenderRegistry senders;
+	// messages accepted by the broker, shared with the owner
+	private final LongAdder accepted;
+	private final int capacity;
+	private final int maxBytes;
+
+	private final ArrayDeque<Item> queue = new ArrayDeque<Item>();
+	// queued COALESCE messages, by schema
+	private final Map<String, Item> latest = new HashMap<String, Item>();
+	private int bytes = 0;
+	private boolean pumping = false;
+	private AmqpSender waiting = null;
+	private boolean failing = false;
+
+	// some stats
+	private long sent = 0;
+	private long rejected = 0;
+	private long dropped = 0;
+	private long coalesced = 0;
+
+	public OutboundQueue(String address, SenderRegistry senders, LongAdder accepted, JsonObject config) {
+		this.address = address;
+		this.senders = senders;
+		this.accepted = accepted;
+		this.capacity = Math.max(1, config.getInteger("capacity", DEFAULT_CAPACITY));
+		this.maxBytes = Math.max(1, config.getInteger("maxBytes", DEFAULT_MAX_BYTES));
+	}
+
+	/* Queues a message and starts sending; returns false if the message was dropped */
+	public boolean offer(String schema, OverflowPolicy policy, Encoding encoding, Buffer body) {
+		synchronized (this) {
+			// when full, a newer result replaces the queued one of the same schema
+			if (policy == OverflowPolicy.COALESCE && schema != null && isFull(body.length())) {
+				Item prev = latest.get(schema);
+				if (prev != null) {
+					bytes += body.length() - prev.body.length();
+					prev.body = body;
+					prev.encoding = encoding;
+					coalesced+=1;
+					return true;
+				}
+			}
+			while (isFull(body.length())) {
+				if (policy == OverflowPolicy.DROP_NEWEST || queue.isEmpty()) {
+					dropped+=1;
+					return false;
+				}
+				removeFirst();
+				dropped+=1;
+			}
+			Item item = new Item(schema, encoding, body);
+			queue.addLast(item);
+			bytes += body.length();
+			if (policy == OverflowPolicy.COALESCE && schema != null) {
+				latest.put(schema, item);
+			}
+		}
+		pump();
+		return true;
+	}
+
+	/* Checks if a message of the given size can be queued without dropping anything */
+	public synchronized boolean accepts(int len) {
+		return !isFull(len);
+	}
+
+	private boolean isFull(int len) {
+		return (queue.size() >= capacity) || (!queue.isEmpty() && (bytes + len > maxBytes));
+	}
+
+	private Item removeFirst() {
+		Item item = queue.pollFirst();
+		bytes -= item.body.length();
+		if (item.schema != null && latest.get(item.schema) == item) {
+			latest.remove(item.schema);
+		}
+		return item;
+	}
+
+	/* Sends queued messages as long as the link accepts them */
+	public void pump() {
+		synchronized (this) {
+			// a link that died while waiting for credit will never drain
+			if (pumping && (waiting != null) && !senders.isOpen(address, waiting)) {
+				pumping = false;
+			}
+			if (pumping || queue.isEmpty()) {
+				return;
+			}
+			pumping = true;
+			waiting = null;
+		}
+		senders.get(address, done -> {
+			if (done.failed()) {
+				synchronized (this) {
+					// report once per outage, messages stay queued
+					if (!failing) {
+						LOG.error("Unable to publish to " + address, done.cause());
+					}
+					failing = true;
+					pumping = false;
+				}
+				return;
+			}
+			AmqpSender sender = done.result();
+			synchronized (this) {
+				failing = false;
+			}
+			while (true) {
+				Item item;
+				synchronized (this) {
+					if (queue.isEmpty()) {
+						pumping = false;
+						return;
+					}
+					if (sender.writeQueueFull()) {
+						break;
+					}
+					item = removeFirst();
+				}
+				sender.sendWithAck(toAmqpMessage(item), ack -> onAck(ack.succeeded()));
+			}
+			// no credit left, resume when the broker grants more
+			synchronized (this) {
+				waiting = sender;
+			}
+			sender.drainHandler(v -> {
+				synchronized (this) {
+					pumping = false;
+					waiting = null;
+				}
+				pump();
+			});
+		});
+	}
+
+	private void onAck(boolean succeeded) {
+		synchronized (this) {
+			if (succeeded) {
+				sent+=1;
+			} else {
+				rejected+=1;
+			}
+		}
+		if (succeeded) {
+			accepted.increment();
+		}
+	}
+
+	// JSON stays a string body for existing consumers, binary encodings are sent as data
+	private AmqpMessage toAmqpMessage(Item item) {
+		if (item.encoding == Encoding.JSON) {
+			return AmqpMessage.create().withBody(item.body.toString()).build();
+		}
+		return AmqpMessage.create()
+			.contentType(item.encoding.getContentType())
+			.withBufferAsBody(item.body)
+			.build();
+	}
+
+	public synchronized JsonObject stats() {
+		return new JsonObject()
+			.put("depth", queue.size())
+			.put("bytes", bytes)
+			.put("sent", sent)
+			.put("rejected", rejected)
+			.put("dropped", dropped)
+			.put("coalesced", coalesced);
+	}
+
+	/* Sums the stats of several queues */
+	public static JsonObject stats(Iterable<OutboundQueue> queues) {
+		int count = 0;
+		long depth = 0, bytes = 0, sent = 0, rejected = 0, dropped = 0, coalesced = 0;
+		for (OutboundQueue q : queues) {
+			synchronized (q) {
+				count+=1;
+				depth += q.queue.size();
+				bytes += q.bytes;
+				sent += q.sent;
+				rejected += q.rejected;
+				dropped += q.dropped;
+				coalesced += q.coalesced;
+			}
+		}
+		return new JsonObject()
+			.put("queues", count)
+			.put("depth", depth)
+			.put("bytes", bytes)
+			.put("sent", sent)
+			.put("rejected", rejected)
+			.put("dropped", dropped)
+			.put("coalesced", coalesced);
+	}
+
+	private static class Item {
+		final String schema;
+		Encoding encoding;
+		Buffer body;
+
+		Item(String schema, Encoding encoding, Buffer body) {
+			this.schema = schema;
+			this.encoding = encoding;
+			this.body = body;
+		}
+	}
+}
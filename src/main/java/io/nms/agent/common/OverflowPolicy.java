@@ -0,0 +1,36 @@
+package io.nms.agent.common;
+
+/*
+ * What an outbound queue does with Results it cannot hold
+ */
+public enum OverflowPolicy {
+	// drop the oldest queued message to make room
+	DROP_OLDEST("drop-oldest"),
+	// drop the message being queued
+	DROP_NEWEST("drop-newest"),
+	// keep only the latest message per schema
+	COALESCE("coalesce");
+
+	private final String value;
+
+	OverflowPolicy(String value) {
+		this.value = value;
+	}
+
+	public String getValue() {
+		return value;
+	}
+
+	/* Gives the policy named in a Specification parameter, null if unknown */
+	public static OverflowPolicy fromValue(String value) {
+		if (value == null || value.isEmpty()) {
+			return DROP_OLDEST;
+		}
+		for (OverflowPolicy p : values()) {
+			if (p.value.equals(value)) {
+				return p;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,141 @@
+package io.nms.agent.common;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+
+/*
+ * Establishes and restores the connection
+ * retries the connector with exponential backoff and jitter until it succeeds,
+ * and keeps attempt counts and outage durations
+ * The first connection (connect) is tried at once, a lost one (connectionLost) after a delay.
+ */
+public class ReconnectSupervisor {
+	private Logger LOG = LoggerFactory.getLogger(ReconnectSupervisor.class);
+
+	public final static long DEFAULT_INITIAL_DELAY_MS = 1000;
+	public final static long DEFAULT_MAX_DELAY_MS = 1000 * 60;
+	public final static double DEFAULT_MULTIPLIER = 2.0;
+	public final static double DEFAULT_JITTER = 0.2;
+
+	private final Vertx vertx;
+	// (re)connects and resubscribes, completes the promise when done
+	private final Consumer<Promise<Void>> connector;
+
+	private final long initialDelayMs;
+	private final long maxDelayMs;
+	private final double multiplier;
+	private final double jitter;
+
+	private boolean reconnecting = false;
+	private boolean stopped = false;
+	// never connected yet, not an outage
+	private boolean initial = false;
+	private int attempt = 0;
+	private long lostAt = 0;
+
+	// some stats
+	private long reconnects = 0;
+	private long attempts = 0;
+	private long failedAttempts = 0;
+	private long lastOutageMs = 0;
+	private long totalOutageMs = 0;
+
+	public ReconnectSupervisor(Vertx vertx, JsonObject config, Consumer<Promise<Void>> connector) {
+		this.vertx = vertx;
+		this.connector = connector;
+		this.initialDelayMs = Math.max(1, config.getLong("initialDelayMs", DEFAULT_INITIAL_DELAY_MS));
+		this.maxDelayMs = Math.max(initialDelayMs, config.getLong("maxDelayMs", DEFAULT_MAX_DELAY_MS));
+		this.multiplier = Math.max(1.0, config.getDouble("multiplier", DEFAULT_MULTIPLIER));
+		this.jitter = Math.min(1.0, Math.max(0.0, config.getDouble("jitter", DEFAULT_JITTER)));
+	}
+
+	/* Connects for the first time, retrying until it succeeds */
+	public void connect() {
+		synchronized (this) {
+			if (reconnecting || stopped) {
+				return;
+			}
+			reconnecting = true;
+			initial = true;
+			attempt = 0;
+		}
+		tryConnect();
+	}
+
+	/* Starts reconnecting, unless already doing so */
+	public synchronized void connectionLost() {
+		if (reconnecting || stopped) {
+			return;
+		}
+		reconnecting = true;
+		initial = false;
+		attempt = 0;
+		lostAt = System.currentTimeMillis();
+		schedule();
+	}
+
+	private synchronized void schedule() {
+		long delay = nextDelayMs();
+		LOG.info("Reconnecting in " + delay + " ms (attempt " + (attempt + 1) + ").");
+		vertx.setTimer(delay, id -> tryConnect());
+	}
+
+	private long nextDelayMs() {
+		double base = Math.min(maxDelayMs, initialDelayMs * Math.pow(multiplier, attempt));
+		double spread = base * jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1);
+		return Math.max(1, Math.round(base + spread));
+	}
+
+	private void tryConnect() {
+		synchronized (this) {
+			if (stopped) {
+				reconnecting = false;
+				return;
+			}
+			attempt+=1;
+			attempts+=1;
+		}
+		Promise<Void> promise = Promise.promise();
+		promise.future().onComplete(res -> {
+			synchronized (this) {
+				if (res.succeeded() && initial) {
+					reconnecting = false;
+					LOG.info("Connected after " + attempt + " attempt(s).");
+				} else if (res.succeeded()) {
+					reconnecting = false;
+					reconnects+=1;
+					lastOutageMs = System.currentTimeMillis() - lostAt;
+					totalOutageMs += lastOutageMs;
+					LOG.info("Reconnected after " + lastOutageMs + " ms and " + attempt + " attempt(s).");
+				} else {
+					failedAttempts+=1;
+					LOG.warn((initial ? "Connection" : "Reconnection") + " failed: " + res.cause().getMessage());
+					schedule();
+				}
+			}
+		});
+		connector.accept(promise);
+	}
+
+	/* Stops any further attempt, e.g., on undeploy */
+	public synchronized void stop() {
+		stopped = true;
+	}
+
+	public synchronized JsonObject stats() {
+		return new JsonObject()
+			.put("reconnecting", reconnecting)
+			.put("reconnects", reconnects)
+			.put("attempts", attempts)
+			.put("failedAttempts", failedAttempts)
+			.put("lastOutageMs", lastOutageMs)
+			.put("totalOutageMs", totalOutageMs);
+	}
+}
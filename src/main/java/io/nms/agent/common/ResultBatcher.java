@@ -0,0 +1,150 @@
+package io.nms.agent.common;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.nms.agent.message.Encoding;
+import io.nms.agent.message.MessageCodec;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+
+/*
+ * Collects encoded Results per endpoint and encoding
+ * and hands them over as one batch when the time window expires or the count/byte limit is reached
+ * A batch is an object with a single array of Results: {"batch": [...]} (see MessageCodec.decodeBatch)
+ */
+public class ResultBatcher {
+	public final static long DEFAULT_WINDOW_MS = 1000;
+	public final static int DEFAULT_MAX_COUNT = 100;
+	public final static int DEFAULT_MAX_BYTES = 1024 * 64;
+
+	private final Vertx vertx;
+	private final long windowMs;
+	private final int maxCount;
+	private final int maxBytes;
+
+	// receives the batch when complete
+	private final Flusher flusher;
+
+	// open batches, by endpoint and encoding
+	private final Map<String, Batch> batches = new HashMap<String, Batch>();
+
+	// some stats
+	private long batchedRes = 0;
+	private long sentBatches = 0;
+
+	public interface Flusher {
+		void flush(String endpoint, Encoding encoding, Buffer batch);
+	}
+
+	public ResultBatcher(Vertx vertx, JsonObject config, Flusher flusher) {
+		this.vertx = vertx;
+		this.flusher = flusher;
+		this.windowMs = Math.max(1, config.getLong("windowMs", DEFAULT_WINDOW_MS));
+		this.maxCount = Math.max(1, config.getInteger("maxCount", DEFAULT_MAX_COUNT));
+		this.maxBytes = Math.max(1, config.getInteger("maxBytes", DEFAULT_MAX_BYTES));
+	}
+
+	/* Adds an encoded Result to the batch of its endpoint */
+	public void add(String endpoint, Encoding encoding, Buffer res) {
+		String key = encoding.getValue() + ":" + endpoint;
+		Batch full = null;
+		synchronized (this) {
+			Batch b = batches.get(key);
+			if (b == null) {
+				b = new Batch(endpoint, encoding);
+				batches.put(key, b);
+				b.timerId = vertx.setTimer(windowMs, id -> flush(key, id));
+			}
+			b.items.add(res);
+			b.bytes += res.length();
+			batchedRes+=1;
+			if ((b.items.size() >= maxCount) || (b.bytes >= maxBytes)) {
+				batches.remove(key);
+				vertx.cancelTimer(b.timerId);
+				full = b;
+				sentBatches+=1;
+			}
+		}
+		if (full != null) {
+			flusher.flush(endpoint, encoding, full.encode());
+		}
+	}
+
+	private void flush(String key, long timerId) {
+		Batch b;
+		synchronized (this) {
+			b = batches.get(key);
+			// batch already sent on limit, timer belongs to a newer one
+			if (b == null || b.timerId != timerId) {
+				return;
+			}
+			batches.remove(key);
+			sentBatches+=1;
+		}
+		flusher.flush(b.endpoint, b.encoding, b.encode());
+	}
+
+	/* Sends all open batches immediately */
+	public void flushAll() {
+		List<Batch> open;
+		synchronized (this) {
+			open = new ArrayList<Batch>(batches.values());
+			for (Batch b : open) {
+				vertx.cancelTimer(b.timerId);
+				sentBatches+=1;
+			}
+			batches.clear();
+		}
+		for (Batch b : open) {
+			flusher.flush(b.endpoint, b.encoding, b.encode());
+		}
+	}
+
+	public synchronized JsonObject stats() {
+		return new JsonObject()
+			.put("openBatches", batches.size())
+			.put("batchedResults", batchedRes)
+			.put("sentBatches", sentBatches);
+	}
+
+	private static class Batch {
+		final String endpoint;
+		final Encoding encoding;
+		final List<Buffer> items = new ArrayList<Buffer>();
+		int bytes = 0;
+		long timerId = -1;
+
+		Batch(String endpoint, Encoding encoding) {
+			this.endpoint = endpoint;
+			this.encoding = encoding;
+		}
+
+		// Results are already encoded, join them into the envelope without re-parsing
+		Buffer encode() {
+			Buffer buf = Buffer.buffer(bytes + items.size() + 16);
+			if (encoding == Encoding.CBOR) {
+				// map of one pair, text key, indefinite-length array: start, items, break
+				buf.appendByte((byte) 0xA1);
+				buf.appendByte((byte) (0x60 | MessageCodec.BATCH.length()));
+				buf.appendString(MessageCodec.BATCH);
+				buf.appendByte((byte) 0x9F);
+				for (Buffer item : items) {
+					buf.appendBuffer(item);
+				}
+				return buf.appendByte((byte) 0xFF);
+			}
+			buf.appendString("{\"" + MessageCodec.BATCH + "\":[");
+			for (int i = 0; i < items.size(); i++) {
+				if (i > 0) {
+					buf.appendByte((byte) ',');
+				}
+				buf.appendBuffer(items.get(i));
+			}
+			return buf.appendString("]}");
+		}
+	}
+}
@@ -0,0 +1,295 @@
+package io.nms.agent.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.nms.agent.message.Encoding;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonObject;
+
+/*
+ * Append-only store of serialized Results, used while the broker is unreachable
+ * Results are appended to memory-mapped segment files of fixed size,
+ * the oldest segment is deleted when the size cap is reached.
+ * Once connected again, the spool is drained in order at a configurable rate.
+ * Segment layout: [int readPos] then records [int len][byte encoding][short epLen][endpoint][result]
+ */
+public class ResultSpool {
+	private Logger LOG = LoggerFactory.getLogger(ResultSpool.class);
+
+	public final static int DEFAULT_SEGMENT_BYTES = 1024 * 1024 * 8;
+	public final static long DEFAULT_MAX_BYTES = 1024 * 1024 * 256;
+	public final static int DEFAULT_DRAIN_RATE = 200;
+
+	private final static String SUFFIX = ".seg";
+	private final static int HEADER = 4;
+	private final static long DRAIN_TICK_MS = 100;
+
+	private final Vertx vertx;
+	private final File dir;
+	private final int segmentBytes;
+	private final int maxSegments;
+	private final int recordsPerTick;
+
+	// oldest first, the last one is written to
+	private final ArrayDeque<Segment> segments = new ArrayDeque<Segment>();
+	private long nextSegmentId = 0;
+	private long drainTimer = -1;
+
+	// some stats
+	private long spooled = 0;
+	private long drained = 0;
+	private long droppedSegments = 0;
+
+	public ResultSpool(Vertx vertx, File dir, JsonObject config) throws IOException {
+		this.vertx = vertx;
+		this.dir = dir;
+		this.segmentBytes = Math.max(1024, config.getInteger("segmentBytes", DEFAULT_SEGMENT_BYTES));
+		long maxBytes = config.getLong("maxBytes", DEFAULT_MAX_BYTES);
+		this.maxSegments = (int) Math.max(2, maxBytes / segmentBytes);
+		int rate = Math.max(1, config.getInteger("drainRatePerSec", DEFAULT_DRAIN_RATE));
+		this.recordsPerTick = (int) Math.max(1, rate * DRAIN_TICK_MS / 1000);
+		open();
+	}
+
+	/* Reloads the segments left by a previous run */
+	private void open() throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Unable to create spool directory " + dir);
+		}
+		File[] files = dir.listFiles((d, n) -> n.endsWith(SUFFIX));
+		Arrays.sort(files);
+		for (File f : files) {
+			long id = Long.parseLong(f.getName().substring(0, f.getName().length() - SUFFIX.length()));
+			Segment seg = new Segment(f);
+			seg.map(segmentBytes);
+			seg.scan(segmentBytes);
+			if (seg.isDrained()) {
+				seg.delete();
+				continue;
+			}
+			seg.unmap();
+			segments.addLast(seg);
+			nextSegmentId = id + 1;
+		}
+		if (!segments.isEmpty()) {
+			LOG.info("Spool reloaded with " + segments.size() + " segment(s).");
+		}
+	}
+
+	public interface Sink {
+		// returns false to retry later
+		boolean accept(String endpoint, Encoding encoding, Buffer res);
+	}
+
+	/* Appends a Result, returns false if it could not be stored */
+	public synchronized boolean append(String endpoint, Encoding encoding, Buffer res) {
+		byte[] ep = endpoint.getBytes(StandardCharsets.UTF_8);
+		byte[] body = res.getBytes();
+		int len = 1 + 2 + ep.length + body.length;
+		if (HEADER + 4 + len > segmentBytes) {
+			LOG.warn("Result too large for the spool, dropped.");
+			return false;
+		}
+		try {
+			Segment seg = segments.peekLast();
+			if (seg == null || seg.writePos + 4 + len > segmentBytes) {
+				seg = roll();
+			} else if (seg.buf == null) {
+				seg.map(segmentBytes);
+			}
+			ByteBuffer buf = seg.buf.duplicate();
+			buf.position(seg.writePos + 4);
+			buf.put((byte) encoding.ordinal());
+			buf.putShort((short) ep.length);
+			buf.put(ep);
+			buf.put(body);
+			// length written last, a partial record reads as end of segment
+			seg.buf.putInt(seg.writePos, len);
+			seg.writePos += 4 + len;
+			spooled+=1;
+			return true;
+		} catch (IOException e) {
+			LOG.error("Unable to write to the spool", e);
+			return false;
+		}
+	}
+
+	private Segment roll() throws IOException {
+		Segment last = segments.peekLast();
+		if (last != null && last.buf != null) {
+			last.buf.force();
+			if (last != segments.peekFirst()) {
+				last.unmap();
+			}
+		}
+		long id = nextSegmentId++;
+		Segment seg = new Segment(new File(dir, String.format("%020d", id) + SUFFIX));
+		seg.map(segmentBytes);
+		seg.setReadPos(HEADER);
+		seg.writePos = HEADER;
+		segments.addLast(seg);
+		while (segments.size() > maxSegments) {
+			segments.pollFirst().delete();
+			droppedSegments+=1;
+			LOG.warn("Spool full, oldest segment dropped.");
+		}
+		return seg;
+	}
+
+	public synchronized boolean isEmpty() {
+		for (Segment seg : segments) {
+			if (!seg.isDrained()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/* Starts replaying spooled Results to the sink */
+	public synchronized void startDrain(Sink sink) {
+		if (drainTimer >= 0 || isEmpty()) {
+			return;
+		}
+		LOG.info("Draining spooled results.");
+		drainTimer = vertx.setPeriodic(DRAIN_TICK_MS, id -> drain(sink));
+	}
+
+	public synchronized void stopDrain() {
+		if (drainTimer >= 0) {
+			vertx.cancelTimer(drainTimer);
+			drainTimer = -1;
+		}
+	}
+
+	private synchronized void drain(Sink sink) {
+		try {
+			int sent = 0;
+			while (sent < recordsPerTick) {
+				Segment seg = segments.peekFirst();
+				if (seg == null) {
+					break;
+				}
+				if (seg.buf == null) {
+					seg.map(segmentBytes);
+				}
+				int pos = seg.getReadPos();
+				if (pos >= seg.writePos) {
+					// fully drained, keep the segment being written to
+					if (seg == segments.peekLast()) {
+						break;
+					}
+					segments.pollFirst().delete();
+					continue;
+				}
+				int len = seg.buf.getInt(pos);
+				ByteBuffer buf = seg.buf.duplicate();
+				buf.position(pos + 4);
+				Encoding encoding = Encoding.values()[buf.get()];
+				byte[] ep = new byte[buf.getShort()];
+				buf.get(ep);
+				byte[] body = new byte[len - 3 - ep.length];
+				buf.get(body);
+				if (!sink.accept(new String(ep, StandardCharsets.UTF_8), encoding, Buffer.buffer(body))) {
+					return;
+				}
+				seg.setReadPos(pos + 4 + len);
+				drained+=1;
+				sent+=1;
+			}
+		} catch (IOException e) {
+			LOG.error("Unable to read from the spool", e);
+		}
+		if (isEmpty()) {
+			LOG.info("Spool drained.");
+			stopDrain();
+		}
+	}
+
+	/* Flushes the segments to disk and stops draining */
+	public synchronized void close() {
+		stopDrain();
+		for (Segment seg : segments) {
+			if (seg.buf != null) {
+				seg.buf.force();
+				seg.unmap();
+			}
+		}
+	}
+
+	public synchronized JsonObject stats() {
+		return new JsonObject()
+			.put("segments", segments.size())
+			.put("spooled", spooled)
+			.put("drained", drained)
+			.put("droppedSegments", droppedSegments);
+	}
+
+	private static class Segment {
+		final File file;
+		MappedByteBuffer buf = null;
+		int writePos = HEADER;
+
+		Segment(File file) {
+			this.file = file;
+		}
+
+		void map(int size) throws IOException {
+			try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+					FileChannel ch = raf.getChannel()) {
+				buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			}
+		}
+
+		void unmap() {
+			buf = null;
+		}
+
+		// finds the end of the written records
+		void scan(int size) {
+			int pos = HEADER;
+			while (pos + 4 <= size) {
+				int len = buf.getInt(pos);
+				if (len <= 0 || pos + 4 + len > size) {
+					break;
+				}
+				pos += 4 + len;
+			}
+			writePos = pos;
+			if (getReadPos() < HEADER || getReadPos() > writePos) {
+				setReadPos(HEADER);
+			}
+		}
+
+		int getReadPos() {
+			return buf.getInt(0);
+		}
+
+		void setReadPos(int pos) {
+			buf.putInt(0, pos);
+		}
+
+		// unmapped segments are never the one being read, so still hold records
+		boolean isDrained() {
+			return (buf != null) ? getReadPos() >= writePos : false;
+		}
+
+		void delete() {
+			unmap();
+			if (!file.delete()) {
+				file.deleteOnExit();
+			}
+		}
+	}
+}
@@ -0,0 +1,271 @@
+package io.nms.agent.common;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.vertx.amqp.AmqpConnection;
+import io.vertx.amqp.AmqpSender;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.json.JsonObject;
+
+/*
+ * Registry of AMQP senders keyed by address
+ * reuses open links instead of attaching a new one per message,
+ * closes links that stay idle longer than the TTL
+ * and bounds the number of open links (least recently used is evicted first)
+ * A sender is in use while the handler it was given to runs: it is not evicted then.
+ * Handlers keeping a sender beyond that (e.g., waiting for credit) check isOpen.
+ */
+public class SenderRegistry {
+	private Logger LOG = LoggerFactory.getLogger(SenderRegistry.class);
+
+	public final static int DEFAULT_MAX_LINKS = 64;
+	public final static long DEFAULT_IDLE_TTL_MS = 1000 * 60;
+
+	private final Vertx vertx;
+	private AmqpConnection connection = null;
+
+	private final int maxLinks;
+	private final long idleTtlMs;
+	private long timerId = -1;
+
+	// open senders, in access order
+	private final LinkedHashMap<String, CachedSender> senders
+				= new LinkedHashMap<String, CachedSender>(16, 0.75f, true);
+
+	// callers waiting for a link being attached
+	private final Map<String, List<Handler<AsyncResult<AmqpSender>>>> pending
+				= new HashMap<String, List<Handler<AsyncResult<AmqpSender>>>>();
+
+	// some stats
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	public SenderRegistry(Vertx vertx, JsonObject config) {
+		this.vertx = vertx;
+		this.maxLinks = Math.max(1, config.getInteger("maxLinks", DEFAULT_MAX_LINKS));
+		this.idleTtlMs = config.getLong("idleTtlMs", DEFAULT_IDLE_TTL_MS);
+		if (idleTtlMs > 0) {
+			timerId = vertx.setPeriodic(Math.max(1000, idleTtlMs / 2), id -> evictIdle());
+		}
+	}
+
+	/* Binds the registry to a (new) connection, senders of the previous one are dropped */
+	public void setConnection(AmqpConnection connection) {
+		List<Handler<AsyncResult<AmqpSender>>> waiters;
+		synchronized (this) {
+			this.connection = connection;
+			senders.clear();
+			waiters = clearPending();
+		}
+		failAll(waiters, "AMQP connection lost");
+	}
+
+	/* Gives an open sender for the address, attaches a new link on miss */
+	public void get(String address, Handler<AsyncResult<AmqpSender>> handler) {
+		AmqpConnection conn;
+		CachedSender hit = null;
+		synchronized (this) {
+			conn = connection;
+			CachedSender cached = senders.get(address);
+			if (cached != null) {
+				hits+=1;
+				cached.lastUsed = System.currentTimeMillis();
+				cached.inUse+=1;
+				hit = cached;
+			} else {
+				misses+=1;
+				List<Handler<AsyncResult<AmqpSender>>> waiters = pending.get(address);
+				if (waiters != null) {
+					waiters.add(handler);
+					return;
+				}
+				if (conn != null) {
+					waiters = new ArrayList<Handler<AsyncResult<AmqpSender>>>();
+					waiters.add(handler);
+					pending.put(address, waiters);
+				}
+			}
+		}
+		if (hit != null) {
+			try {
+				handler.handle(Future.succeededFuture(hit.sender));
+			} finally {
+				release(hit);
+			}
+		} else if (conn == null) {
+			handler.handle(Future.failedFuture("No AMQP connection"));
+		} else {
+			conn.createSender(address, done -> onAttached(conn, address, done));
+		}
+	}
+
+	private void onAttached(AmqpConnection conn, String address, AsyncResult<AmqpSender> done) {
+		List<Handler<AsyncResult<AmqpSender>>> waiters = null;
+		CachedSender cached = null;
+		AmqpSender evicted = null;
+		synchronized (this) {
+			if (conn != connection) {
+				// a link of a replaced connection, its waiters were failed by setConnection
+				evicted = done.succeeded() ? done.result() : null;
+			} else {
+				waiters = pending.remove(address);
+			}
+			if (done.succeeded() && conn == connection) {
+				AmqpSender sender = done.result();
+				sender.exceptionHandler(err -> {
+					LOG.warn("Sender to " + address + " failed: " + err.getMessage());
+					invalidate(address, sender);
+				});
+				cached = new CachedSender(sender);
+				cached.inUse = 1;
+				senders.put(address, cached);
+				evicted = evictLeastRecent();
+			}
+		}
+		if (evicted != null) {
+			evicted.close(null);
+		}
+		try {
+			if (waiters != null) {
+				for (Handler<AsyncResult<AmqpSender>> h : waiters) {
+					h.handle(done);
+				}
+			}
+		} finally {
+			if (cached != null) {
+				release(cached);
+			}
+		}
+	}
+
+	// removes all waiters, to be failed outside the lock
+	private List<Handler<AsyncResult<AmqpSender>>> clearPending() {
+		List<Handler<AsyncResult<AmqpSender>>> waiters = new ArrayList<Handler<AsyncResult<AmqpSender>>>();
+		for (List<Handler<AsyncResult<AmqpSender>>> l : pending.values()) {
+			waiters.addAll(l);
+		}
+		pending.clear();
+		return waiters;
+	}
+
+	private static void failAll(List<Handler<AsyncResult<AmqpSender>>> waiters, String cause) {
+		for (Handler<AsyncResult<AmqpSender>> h : waiters) {
+			h.handle(Future.failedFuture(cause));
+		}
+	}
+
+	// the least recently used sender beyond the bound, if not in use
+	private AmqpSender evictLeastRecent() {
+		if (senders.size() <= maxLinks) {
+			return null;
+		}
+		Iterator<CachedSender> it = senders.values().iterator();
+		while (it.hasNext()) {
+			CachedSender cached = it.next();
+			if (cached.inUse == 0) {
+				it.remove();
+				evictions+=1;
+				return cached.sender;
+			}
+		}
+		return null;
+	}
+
+	// the handler is done with the sender, evicts it now if the bound was reached meanwhile
+	private void release(CachedSender cached) {
+		AmqpSender evicted;
+		synchronized (this) {
+			cached.inUse-=1;
+			evicted = evictLeastRecent();
+		}
+		if (evicted != null) {
+			evicted.close(null);
+		}
+	}
+
+	/* Checks if the sender is still the open link for the address */
+	public synchronized boolean isOpen(String address, AmqpSender sender) {
+		CachedSender cached = senders.get(address);
+		return (cached != null) && (cached.sender == sender);
+	}
+
+	/* Removes a broken sender so that the next call attaches a new link */
+	public synchronized void invalidate(String address, AmqpSender sender) {
+		CachedSender cached = senders.get(address);
+		if (cached != null && cached.sender == sender) {
+			senders.remove(address);
+		}
+	}
+
+	private void evictIdle() {
+		List<AmqpSender> idle = new ArrayList<AmqpSender>();
+		synchronized (this) {
+			long limit = System.currentTimeMillis() - idleTtlMs;
+			Iterator<CachedSender> it = senders.values().iterator();
+			while (it.hasNext()) {
+				CachedSender cached = it.next();
+				if (cached.inUse == 0 && cached.lastUsed < limit) {
+					idle.add(cached.sender);
+					it.remove();
+					evictions+=1;
+				}
+			}
+		}
+		for (AmqpSender s : idle) {
+			s.close(null);
+		}
+	}
+
+	/* Closes all open senders and stops the eviction timer */
+	public void close() {
+		if (timerId >= 0) {
+			vertx.cancelTimer(timerId);
+			timerId = -1;
+		}
+		List<AmqpSender> open = new ArrayList<AmqpSender>();
+		List<Handler<AsyncResult<AmqpSender>>> waiters;
+		synchronized (this) {
+			for (CachedSender cached : senders.values()) {
+				open.add(cached.sender);
+			}
+			senders.clear();
+			waiters = clearPending();
+		}
+		failAll(waiters, "AMQP sender registry closed");
+		for (AmqpSender s : open) {
+			s.close(null);
+		}
+	}
+
+	public synchronized JsonObject stats() {
+		return new JsonObject()
+			.put("links", senders.size())
+			.put("hits", hits)
+			.put("misses", misses)
+			.put("evictions", evictions);
+	}
+
+	private static class CachedSender {
+		final AmqpSender sender;
+		long lastUsed;
+		// handlers running with the sender
+		int inUse = 0;
+
+		CachedSender(AmqpSender sender) {
+			this.sender = sender;
+			this.lastUsed = System.currentTimeMillis();
+		}
+	}
+}
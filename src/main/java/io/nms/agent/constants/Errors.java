@@ -6,9 +6,11 @@ public class Errors {
 	
 	public class Task {
 		public final static String PARAM_UNSUPPORTED = "Unsupported parameter(s)";	
+		public final static String RESULT_UNSUPPORTED = "Unsupported result(s)";
 		public final static String SPEC_UNSUPPORTED = "Unsupported Specification";
 		public final static String WHEN_UNSUPPORTED = "Unsupported temporal scope";
 		public final static String SPEC = "Error in Specification message";
+		public final static String HISTORY_UNAVAILABLE = "No history for the requested results";
 	}
 	
 	public class TaskManager{
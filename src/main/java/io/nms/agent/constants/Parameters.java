@@ -0,0 +1,20 @@
+package io.nms.agent.constants;
+
+/*
+ * Reserved Specification parameters
+ * handled by the agent itself, not by the Capabilities
+ */
+public class Parameters {
+	// what to drop when the outbound queue is full: drop-oldest, drop-newest, coalesce
+	public final static String OVERFLOW = "publish.overflow";
+	// how Results are encoded: json, cbor (see Capability encodings)
+	public final static String ENCODING = "publish.encoding";
+	// publishes only results moving beyond it: absolute, e.g., 1024, or relative, e.g., 5% (see DeadbandFilter)
+	public final static String DEADBAND = "publish.deadband";
+	// with a deadband, publishes anyway every n periods
+	public final static String HEARTBEAT = "publish.heartbeat";
+	// sampling period (ms) within the period of the Specification, which then receives aggregates
+	public final static String AGGREGATE_PERIOD = "aggregate.period";
+	// quantiles of the aggregates, e.g., 0.5,0.9,0.99 (see WindowAggregator)
+	public final static String AGGREGATE_QUANTILES = "aggregate.quantiles";
+}
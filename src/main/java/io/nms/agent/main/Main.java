@@ -62,6 +62,7 @@ public class Main {
 					.getJsonObject("config", new JsonObject()));
 			vertConfig.put("agent", configuration.getJsonObject("agent"));
 			vertConfig.put("amqp", configuration.getJsonObject("amqp"));
+			vertConfig.put("scheduler", configuration.getJsonObject("scheduler", new JsonObject()));
 
 			AmqpAgentVerticle vModule = new AmqpAgentVerticle();
 			vertx.deployVerticle(vModule, new DeploymentOptions()
@@ -6,8 +6,6 @@ import java.util.List;
 import java.util.Map;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 
 /**
@@ -19,6 +17,12 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 public class Capability extends Message {
 	@JsonProperty("capability")
 	protected String verb;
+	
+	// Result encodings the agent can publish with
+	protected List<String> encodings;
+	
+	// value type of each result column (long, double, string)
+	protected List<String> resultTypes;
 
 	/**
 	 * The default constructor creates an empty Capability message.
@@ -29,10 +33,9 @@ public class Capability extends Message {
 	}
 	
 	public static List<Capability> toListfromString(String str) {
-		ObjectMapper mapper = new ObjectMapper();
 		List<Capability> ml = Arrays.asList();
 		try {
-			ml = Arrays.asList(mapper.readValue(str, Capability[].class));
+			ml = Arrays.asList(MessageCodec.decodeCapabilities(str));
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -40,14 +43,29 @@ public class Capability extends Message {
 	}
 	
 	public static String toStringFromList(List<Capability> msgList) {
-		ObjectMapper mapper = new ObjectMapper();
-		String str = "[]";
-		try {
-			str = mapper.writeValueAsString(msgList);
-		} catch (JsonProcessingException e) {
-			e.printStackTrace();
-		}
-		return str;
+		return MessageCodec.encodeList(msgList);
+	}
+  
+	/**
+	 * Gives the Result encodings supported for this Capability.
+	 * @return List<String>. Names as defined in Encoding.
+	 */
+	public List<String> getEncodings() {
+		return encodings;
+	}
+	public void setEncodings(List<String> encodings) {
+		this.encodings = encodings;
+	}
+	
+	/**
+	 * Gives the value type of each result column, in the order of results.
+	 * @return List<String>. Names as defined in ResultTable.ColumnType.
+	 */
+	public List<String> getResultTypes() {
+		return resultTypes;
+	}
+	public void setResultTypes(List<String> resultTypes) {
+		this.resultTypes = resultTypes;
 	}
   
 	/**
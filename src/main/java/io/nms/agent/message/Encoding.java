@@ -0,0 +1,61 @@
+package io.nms.agent.message;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <h1>Encoding</h1>
+ * Defines the encodings a Result can be published with.
+ * Chosen per Specification, advertised in the Capability.
+ */
+public enum Encoding {
+	/** Full Result as JSON text. */
+	JSON("json", "application/json"),
+	/** Compact Result (schema, timestamp and values only) as CBOR. */
+	CBOR("cbor", "application/cbor");
+	
+	private final String value;
+	private final String contentType;
+	
+	Encoding(String value, String contentType) {
+		this.value = value;
+		this.contentType = contentType;
+	}
+	
+	public String getValue() {
+		return value;
+	}
+	
+	public String getContentType() {
+		return contentType;
+	}
+	
+	/**
+	 * Gives the encoding named in a Specification parameter.
+	 * @param value The parameter value, JSON if empty.
+	 * @return Encoding. null if not supported.
+	 */
+	public static Encoding fromValue(String value) {
+		if (value == null || value.isEmpty()) {
+			return JSON;
+		}
+		for (Encoding e : values()) {
+			if (e.value.equals(value)) {
+				return e;
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Gives the names of all supported encodings.
+	 * @return List<String>. As advertised in Capabilities.
+	 */
+	public static List<String> names() {
+		List<String> names = new ArrayList<String>();
+		for (Encoding e : values()) {
+			names.add(e.value);
+		}
+		return names;
+	}
+}
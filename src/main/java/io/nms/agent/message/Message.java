@@ -1,9 +1,5 @@
 package io.nms.agent.message;
 
-import java.io.IOException;
-import java.math.BigInteger;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -17,9 +13,8 @@ import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
+
+import io.vertx.core.buffer.Buffer;
 
 
 /**
@@ -51,6 +46,8 @@ public class Message {
 	protected String timestamp = "";
 	protected String agentId = "";
 	protected String role = "";
+	// schema of the identifying fields, until one of them is set
+	private String digest = null;
 	
 	/* internal fields */
 	protected int msgType;
@@ -88,7 +85,9 @@ public class Message {
 		//this.schema = getMd5(this.name+this.endpoint);		
 		this.agentId = msg.agentId;
 		this.role = msg.role;
-		this.setSchema();
+		// same identifying fields, hashed once for both messages
+		this.digest = msg.digest();
+		this.schema = this.digest;
 	}
   
 	/**
@@ -100,29 +99,13 @@ public class Message {
 	 * @see NMS document for JSON representation.
 	 */
 	public static Message fromJsonString(String str) {
-		ObjectMapper mapper = new ObjectMapper();
-		Message msg = null;
-		try {
-			if (str.contains("specification")) {
-				msg = mapper.readValue(str, Specification.class);
-			} else if (str.contains("interrupt")) {
-				msg = mapper.readValue(str, Interrupt.class);
-			} else if (str.contains("capability")) {
-				msg = mapper.readValue(str, Capability.class);
-			} else if (str.contains("receipt")) {
-				msg = mapper.readValue(str, Receipt.class);
-			} else if (str.contains("result")) {
-				msg = mapper.readValue(str, Result.class);
-			}
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		return msg;
+		return MessageCodec.decode(str);
 	}
 	
 	/* ------------------- last updates -------------------- */	
 	public void setParameter(String key, String value) {
 		parameters.put(key, value);
+		digest = null;
 	}
 	
 	public void setContent(String key, String value) {
@@ -139,6 +122,7 @@ public class Message {
 	
 	public void clearParameters() {
 		parameters.clear();
+		digest = null;
 	}
 	
 	public void clearContent() {
@@ -163,6 +147,7 @@ public class Message {
 	
 	public void setAgentId(String agentId) {
 		this.agentId = agentId;
+		digest = null;
 	}
 	
 	public void setRole(String role) {
@@ -179,12 +164,23 @@ public class Message {
 	}
 	
 	/* 
-	 * Uniquely identifies a measurement 
+	 * Uniquely identifies a measurement, 
+	 * the endpoint only tells where Results are sent to
 	 */
 	public void setSchema() {
-		//int sResults = this.results.hashCode();
-		int sParameters = this.parameters.hashCode();
-		this.schema = getMd5(name + endpoint + agentId + sParameters);
+		this.schema = digest();
+	}
+	
+	private String digest() {
+		if (digest == null) {
+			digest = SchemaHasher.schema(name, agentId, parameters);
+		}
+		return digest;
+	}
+	
+	/* The identifying fields changed, the schema is hashed again on next use */
+	protected void invalidateSchema() {
+		digest = null;
 	}
 	/* --------------------------------------------------- */
 	
@@ -192,22 +188,24 @@ public class Message {
 	 * Creates a JSON representation of the Message object. 
 	 * @param msg The message object to represent.
 	 * @return String The JSON representation.
-	 * @exception JsonProcessingException On input error. 
 	 * @see NMS document for JSON representation.
 	 */
 	public static String toJsonString(Message msg, boolean pretty) {
-		ObjectMapper mapper = new ObjectMapper();  
-		if (pretty) {
-			mapper.enable(SerializationFeature.INDENT_OUTPUT);
-		}
-		try {
-			return mapper.writeValueAsString(msg);
-		} catch (JsonProcessingException e) {
-			e.printStackTrace();
-			return "{}";
-		}
+		return MessageCodec.encodeToString(msg, pretty);
 	}
   
+	/**
+	 * Creates the representation of the Message object in the given encoding.
+	 * Results are reduced to their compact form in binary encodings.
+	 * @param msg The message object to represent.
+	 * @param encoding The encoding to use.
+	 * @return Buffer The encoded message.
+	 * @see Encoding.
+	 */
+	public static Buffer toBuffer(Message msg, Encoding encoding) {
+		return MessageCodec.encode(msg, encoding);
+	}
+	
 	/**
 	 * Verifies if all expected fields are 
 	 * correctly defined in the message.
@@ -535,9 +533,11 @@ public class Message {
 	}
 	public void setName(String name) {
 		this.name = name;
+		digest = null;
 	}
 	public void setParameters(Map<String, String> parameters) {
 		this.parameters = parameters;
+		digest = null;
 	}
 	public void setResults(List<String> results) {
 		this.results = results;
@@ -568,27 +568,6 @@ public class Message {
 	//}
 	
 	
-	/*
-	 * 
-	 * 
-	 */
-	private String getMd5(String input) 
-    { 
-        try { 
-            MessageDigest md = MessageDigest.getInstance("MD5"); 
-            byte[] messageDigest = md.digest(input.getBytes()); 
-            BigInteger no = new BigInteger(1, messageDigest); 
-            String hashtext = no.toString(16);
-            while (hashtext.length() < 32) {
-                hashtext = "0" + hashtext;
-            }
-            return hashtext; 
-        } 
-        catch (NoSuchAlgorithmException e) { 
-            throw new RuntimeException(e); 
-        } 
-    }
-
 	/**
 	 * <h1>Message.Type</h1>
 	 * Defines the predefined message types values  
@@ -0,0 +1,241 @@
+package io.nms.agent.message;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.util.JsonParserSequence;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * <h1>MessageCodec</h1>
+ * Shared encoder and decoder of NMS messages.
+ * Readers and writers are created once and are thread-safe.
+ * The message type is detected from the name of the verb field
+ * ("specification", "interrupt", ...) while parsing, in a single pass.
+ * Batches of Results are wrapped in an object with a single "batch" array field.
+ */
+public final class MessageCodec {
+
+	// field of the batch envelope: {"batch": [...]}
+	public final static String BATCH = "batch";
+
+	private final static ObjectMapper JSON_MAPPER = new ObjectMapper();
+	private final static ObjectMapper CBOR_MAPPER = new ObjectMapper(new CBORFactory());
+
+	private final static ObjectReader SPECIFICATION_READER = JSON_MAPPER.readerFor(Specification.class);
+	private final static ObjectReader INTERRUPT_READER = JSON_MAPPER.readerFor(Interrupt.class);
+	private final static ObjectReader CAPABILITY_READER = JSON_MAPPER.readerFor(Capability.class);
+	private final static ObjectReader RECEIPT_READER = JSON_MAPPER.readerFor(Receipt.class);
+	private final static ObjectReader RESULT_READER = JSON_MAPPER.readerFor(Result.class);
+	private final static ObjectReader CAPABILITY_LIST_READER = JSON_MAPPER.readerFor(Capability[].class);
+	private final static ObjectReader RECEIPT_LIST_READER = JSON_MAPPER.readerFor(Receipt[].class);
+
+	private final static ObjectWriter JSON_WRITER = JSON_MAPPER.writer();
+	private final static ObjectWriter JSON_PRETTY_WRITER = JSON_MAPPER.writerWithDefaultPrettyPrinter();
+	private final static ObjectWriter CBOR_WRITER = CBOR_MAPPER.writer();
+
+	private MessageCodec() {}
+
+	/**
+	 * Decodes a JSON message, the type is given by its verb field.
+	 * @param str The JSON string.
+	 * @return Message. The typed message, null if not a known message.
+	 */
+	public static Message decode(String str) {
+		return decode(str.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Decodes a JSON message from a Buffer.
+	 * @param buf The JSON content.
+	 * @return Message. The typed message, null if not a known message.
+	 */
+	public static Message decode(Buffer buf) {
+		return decode(buf.getBytes());
+	}
+
+	private static Message decode(byte[] bytes) {
+		try (JsonParser p = JSON_MAPPER.getFactory().createParser(bytes)) {
+			if (p.nextToken() != JsonToken.START_OBJECT) {
+				return null;
+			}
+			return decodeObject(p);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * Decodes a batch of Results, as sent by the ResultBatcher.
+	 * Results of a CBOR batch are in their compact form.
+	 * @param buf The encoded batch.
+	 * @param encoding The encoding of the batch.
+	 * @return List<Message>. The messages of the batch, null if not a batch.
+	 * @throws IOException If the content can not be parsed.
+	 */
+	public static List<Message> decodeBatch(Buffer buf, Encoding encoding) throws IOException {
+		ObjectMapper mapper = (encoding == Encoding.CBOR) ? CBOR_MAPPER : JSON_MAPPER;
+		try (JsonParser p = mapper.getFactory().createParser(buf.getBytes())) {
+			if (p.nextToken() != JsonToken.START_OBJECT || p.nextToken() != JsonToken.FIELD_NAME
+					|| !BATCH.equals(p.getCurrentName()) || p.nextToken() != JsonToken.START_ARRAY) {
+				return null;
+			}
+			List<Message> batch = new ArrayList<Message>();
+			JsonToken t;
+			while ((t = p.nextToken()) != JsonToken.END_ARRAY && t != null) {
+				if (t != JsonToken.START_OBJECT) {
+					p.skipChildren();
+					continue;
+				}
+				Message msg = decodeObject(p);
+				if (msg != null) {
+					batch.add(msg);
+				}
+			}
+			return batch;
+		}
+	}
+
+	// reads the object the parser is on, up to its end
+	private static Message decodeObject(JsonParser p) throws IOException {
+		// fields seen before the verb are kept and replayed to the reader
+		TokenBuffer seen = new TokenBuffer(p);
+		seen.copyCurrentEvent(p);
+		while (p.nextToken() == JsonToken.FIELD_NAME) {
+			ObjectReader reader = readerForVerb(p.getCurrentName());
+			if (reader != null) {
+				seen.copyCurrentEvent(p);
+				JsonParser rest = JsonParserSequence.createFlattened(false, seen.asParser(p), p);
+				return reader.readValue(rest);
+			}
+			seen.copyCurrentStructure(p);
+		}
+		return null;
+	}
+
+	private static ObjectReader readerForVerb(String field) {
+		switch (field) {
+			case "specification": return SPECIFICATION_READER;
+			case "interrupt": return INTERRUPT_READER;
+			case "capability": return CAPABILITY_READER;
+			case "receipt": return RECEIPT_READER;
+			case "result": return RESULT_READER;
+			default: return null;
+		}
+	}
+
+	/**
+	 * Encodes a message in JSON.
+	 * @param msg The message to encode.
+	 * @param pretty Indents the output if true.
+	 * @return String. The JSON representation, "{}" on error.
+	 */
+	public static String encodeToString(Message msg, boolean pretty) {
+		try {
+			return (pretty ? JSON_PRETTY_WRITER : JSON_WRITER).writeValueAsString(msg);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return "{}";
+		}
+	}
+
+	/**
+	 * Encodes a message straight into a Buffer.
+	 * Results are reduced to their compact form in binary encodings.
+	 * @param msg The message to encode.
+	 * @param encoding The encoding to use.
+	 * @return Buffer. The encoded message, "{}" on error.
+	 */
+	public static Buffer encode(Message msg, Encoding encoding) {
+		Buffer buf = Buffer.buffer(512);
+		try (OutputStream out = new BufferOutputStream(buf)) {
+			if (encoding == Encoding.CBOR) {
+				Object value = (msg instanceof Result) ? ((Result) msg).toCompact() : msg;
+				CBOR_WRITER.writeValue(out, value);
+			} else {
+				JSON_WRITER.writeValue(out, msg);
+			}
+			return buf;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return Buffer.buffer("{}");
+		}
+	}
+
+	/**
+	 * Decodes JSON arrays of Capability and Receipt messages.
+	 */
+	public static Capability[] decodeCapabilities(String str) throws IOException {
+		return CAPABILITY_LIST_READER.readValue(str);
+	}
+	public static Receipt[] decodeReceipts(String str) throws IOException {
+		return RECEIPT_LIST_READER.readValue(str);
+	}
+
+	/**
+	 * Encodes a list of messages as a JSON array.
+	 * @param msgList The messages to encode.
+	 * @return String. The JSON representation, "[]" on error.
+	 */
+	public static String encodeList(List<? extends Message> msgList) {
+		try {
+			return JSON_WRITER.writeValueAsString(msgList);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return "[]";
+		}
+	}
+
+	/*
+	 * Creates a streaming generator for the encoding, used to write large Results
+	 */
+	static JsonGenerator createGenerator(Encoding encoding, OutputStream out) throws IOException {
+		ObjectMapper mapper = (encoding == Encoding.CBOR) ? CBOR_MAPPER : JSON_MAPPER;
+		return mapper.getFactory().createGenerator(out);
+	}
+
+	/*
+	 * Gives the fields of a message as they would be serialized
+	 */
+	@SuppressWarnings("unchecked")
+	static Map<String, Object> toFields(Message msg) {
+		return JSON_MAPPER.convertValue(msg, LinkedHashMap.class);
+	}
+
+	/*
+	 * Appends the generator output to the Buffer
+	 * Jackson already buffers its output, so writes come in chunks
+	 */
+	static class BufferOutputStream extends OutputStream {
+		private final Buffer buf;
+
+		BufferOutputStream(Buffer buf) {
+			this.buf = buf;
+		}
+
+		@Override
+		public void write(int b) {
+			buf.appendByte((byte) b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			buf.appendBytes(b, off, len);
+		}
+	}
+}
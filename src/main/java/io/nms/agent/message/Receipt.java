@@ -5,8 +5,6 @@ import java.util.Arrays;
 import java.util.List;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 
 
 /**
@@ -37,10 +35,9 @@ public class Receipt extends Message {
 	}
 	
 	public static List<Receipt> toRctListfromString(String str) {
-		ObjectMapper mapper = new ObjectMapper();
 		List<Receipt> ml = Arrays.asList();
 		try {
-			ml = Arrays.asList(mapper.readValue(str, Receipt[].class));
+			ml = Arrays.asList(MessageCodec.decodeReceipts(str));
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -48,13 +45,6 @@ public class Receipt extends Message {
 	}
 	
 	public static String toStringFromRctList(List<Receipt> msgList) {
-		ObjectMapper mapper = new ObjectMapper();
-		String str = "[]";
-		try {
-			str = mapper.writeValueAsString(msgList);
-		} catch (JsonProcessingException e) {
-			e.printStackTrace();
-		}
-		return str;
+		return MessageCodec.encodeList(msgList);
 	}
 }
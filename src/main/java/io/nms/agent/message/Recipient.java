@@ -0,0 +1,25 @@
+package io.nms.agent.message;
+
+/**
+ * <h1>Recipient</h1>
+ * A subscriber of the Results of a task: the endpoint they are
+ * published to and the token of its Specification.
+ * Results shared between subscribers carry these fields per Recipient.
+ */
+public final class Recipient {
+	private final String endpoint;
+	private final String token;
+
+	public Recipient(String endpoint, String token) {
+		this.endpoint = endpoint;
+		this.token = token;
+	}
+
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	public String getToken() {
+		return token;
+	}
+}
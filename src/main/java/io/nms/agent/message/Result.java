@@ -1,5 +1,6 @@
 package io.nms.agent.message;
 
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import com.fasterxml.jackson.annotation.JsonIgnore;
@@ -15,6 +16,10 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 public class Result extends Message {
 	@JsonProperty("result")
 	protected String verb;
+	
+	// typed values of the executed task, replace resultValues when set
+	@JsonIgnore
+	protected ResultTable resultTable;
   
 	/**
 	 * The default constructor creates an empty Result message.
@@ -33,6 +38,65 @@ public class Result extends Message {
 		msgType = Message.Type.RESULT;
 	}
 	
+	/**
+	 * Gives the typed values of the Result.
+	 * @return ResultTable. null if the Result only has string values.
+	 */
+	@JsonIgnore
+	public ResultTable getResultTable() {
+		return resultTable;
+	}
+	public void setResultTable(ResultTable resultTable) {
+		this.resultTable = resultTable;
+	}
+	
+	/**
+	 * Redefinition to give the string values of the typed values, if any.
+	 */
+	@JsonIgnore
+	public List<List<String>> getResultValues() {
+		if (resultTable != null) {
+			return resultTable.toStringRows();
+		}
+		return resultValues;
+	}
+	
+	@JsonProperty("resultValues")
+	public void setResultValues(List<List<String>> resultValues) {
+		this.resultValues = resultValues;
+	}
+	
+	/**
+	 * Gives the values to serialize, read straight from the typed values if any.
+	 * @return Object. The ResultTable or the resultValues.
+	 */
+	@JsonProperty("resultValues")
+	public Object getSerializedValues() {
+		if (resultTable != null) {
+			return resultTable;
+		}
+		return resultValues;
+	}
+	
+	/**
+	 * Gives the compact form of the Result used in binary encodings.
+	 * Only the fields that change between Results are kept,
+	 * the others are known from the Specification through the schema.
+	 * The columns are kept: the schema does not cover them and the published
+	 * ones may differ from the Specification (aggregates, static columns, time).
+	 * @return Map<String, Object>. The compact Result.
+	 */
+	@JsonIgnore
+	public Map<String, Object> toCompact() {
+		Map<String, Object> compact = new LinkedHashMap<String, Object>();
+		compact.put("result", getVerb());
+		compact.put("schema", schema);
+		compact.put("timestamp", timestamp);
+		compact.put("results", getResults());
+		compact.put("resultValues", getSerializedValues());
+		return compact;
+	}
+	
 	/**
 	 * Redefinition to hide "content" field in the JSON representation.
 	 */
@@ -0,0 +1,157 @@
+package io.nms.agent.message;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import io.nms.agent.message.MessageCodec.BufferOutputStream;
+import io.vertx.core.buffer.Buffer;
+
+/**
+ * <h1>ResultChunkWriter</h1>
+ * Streams the rows of a Result into chunks of bounded size.
+ * Each chunk is a complete Result carrying part of the rows,
+ * a sequence number ("chunk", from 0) and a final-chunk marker ("last").
+ * A Result that fits in one chunk is written as is, without these fields.
+ * The rows of a chunk are encoded once for all its Recipients; in JSON,
+ * each Recipient gets its own endpoint and token around them, the compact
+ * binary form has neither and is shared as is.
+ * Only one chunk is held in memory at a time.
+ */
+public class ResultChunkWriter {
+	public final static int DEFAULT_CHUNK_BYTES = 1024 * 64;
+
+	public final static String CHUNK = "chunk";
+	public final static String LAST = "last";
+
+	private final int chunkBytes;
+
+	public interface Sink {
+		void accept(Recipient recipient, Buffer chunk, int seq, boolean last);
+	}
+
+	/**
+	 * Creates a writer.
+	 * @param chunkBytes The size above which a chunk is closed, at least one row per chunk.
+	 */
+	public ResultChunkWriter(int chunkBytes) {
+		this.chunkBytes = Math.max(1, chunkBytes);
+	}
+
+	/**
+	 * Writes a Result, chunks are handed over as soon as they are complete.
+	 * @param res The Result to write.
+	 * @param encoding The encoding of the chunks.
+	 * @param recipients The subscribers the chunks are written for.
+	 * @param sink Receives the encoded chunks, in order, for each Recipient.
+	 * @return int. The number of chunks written per Recipient.
+	 */
+	public int write(Result res, Encoding encoding, List<Recipient> recipients, Sink sink) throws IOException {
+		ResultTable table = res.getResultTable();
+		if (table == null) {
+			// string values only, nothing to stream
+			for (Recipient r : recipients) {
+				res.setEndpoint(r.getEndpoint());
+				res.setToken(r.getToken());
+				sink.accept(r, MessageCodec.encode(res, encoding), 0, true);
+			}
+			return 1;
+		}
+		Map<String, Object> header = header(res, encoding);
+		int rows = table.getRowCount();
+		int row = 0;
+		int seq = 0;
+		do {
+			if (encoding == Encoding.CBOR) {
+				Buffer buf = Buffer.buffer(Math.min(chunkBytes, 1024 * 4));
+				try (JsonGenerator gen = MessageCodec.createGenerator(encoding, new BufferOutputStream(buf))) {
+					gen.writeStartObject();
+					writeFields(gen, header);
+					gen.writeFieldName("resultValues");
+					row = writeRows(gen, table, row, buf);
+					writeMarkers(gen, seq, row, rows);
+					gen.writeEndObject();
+				}
+				for (Recipient r : recipients) {
+					sink.accept(r, buf, seq, row >= rows);
+				}
+			} else {
+				Buffer values = Buffer.buffer(Math.min(chunkBytes, 1024 * 4));
+				try (JsonGenerator gen = MessageCodec.createGenerator(encoding, new BufferOutputStream(values))) {
+					row = writeRows(gen, table, row, values);
+				}
+				String raw = values.toString(StandardCharsets.UTF_8);
+				for (Recipient r : recipients) {
+					header.put("endpoint", r.getEndpoint());
+					header.put("token", r.getToken());
+					Buffer buf = Buffer.buffer(values.length() + 256);
+					try (JsonGenerator gen = MessageCodec.createGenerator(encoding, new BufferOutputStream(buf))) {
+						gen.writeStartObject();
+						writeFields(gen, header);
+						gen.writeFieldName("resultValues");
+						gen.writeRawValue(raw);
+						writeMarkers(gen, seq, row, rows);
+						gen.writeEndObject();
+					}
+					sink.accept(r, buf, seq, row >= rows);
+				}
+			}
+			seq+=1;
+		} while (row < rows);
+		return seq;
+	}
+
+	// the rows from a given one as an array, until the chunk is full, gives the next row
+	private int writeRows(JsonGenerator gen, ResultTable table, int row, Buffer buf) throws IOException {
+		boolean typed = gen.canWriteBinaryNatively();
+		int rows = table.getRowCount();
+		gen.writeStartArray();
+		do {
+			if (row < rows) {
+				table.writeRow(gen, row, typed);
+				row+=1;
+			}
+			gen.flush();
+		} while (row < rows && buf.length() < chunkBytes);
+		gen.writeEndArray();
+		return row;
+	}
+
+	private static void writeFields(JsonGenerator gen, Map<String, Object> fields) throws IOException {
+		for (Map.Entry<String, Object> field : fields.entrySet()) {
+			if (field.getValue() != null) {
+				gen.writeObjectField(field.getKey(), field.getValue());
+			}
+		}
+	}
+
+	// markers are only needed if the Result is split
+	private static void writeMarkers(JsonGenerator gen, int seq, int row, int rows) throws IOException {
+		if (seq > 0 || row < rows) {
+			gen.writeNumberField(CHUNK, seq);
+			gen.writeBooleanField(LAST, row >= rows);
+		}
+	}
+	/*
+	 * Fields repeated in every chunk, in the representation of the encoding
+	 */
+	private Map<String, Object> header(Result res, Encoding encoding) {
+		Map<String, Object> header;
+		if (encoding == Encoding.CBOR) {
+			header = res.toCompact();
+		} else {
+			ResultTable table = res.getResultTable();
+			res.setResultTable(null);
+			try {
+				header = MessageCodec.toFields(res);
+			} finally {
+				res.setResultTable(table);
+			}
+		}
+		header.remove("resultValues");
+		return header;
+	}
+}
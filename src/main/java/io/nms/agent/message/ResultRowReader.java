@@ -0,0 +1,103 @@
+package io.nms.agent.message;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * <h1>ResultRowReader</h1>
+ * Streams JSON arrays of objects (e.g., command output) into a ResultTable.
+ * Each object is a row, its fields are set by column name, as Strings
+ * converted to the column type. Fields that are not columns are skipped.
+ * Rows are added as they are parsed, the input is never held as a whole.
+ */
+public class ResultRowReader {
+	// the caller owns the stream
+	private final static JsonFactory FACTORY = new JsonFactory()
+			.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+
+	private ResultRowReader() {}
+
+	/**
+	 * Reads all the arrays of a stream.
+	 * @param in The JSON stream, UTF-8, it is not closed.
+	 * @param table Receives the rows.
+	 * @return int. The number of rows added.
+	 * @throws IOException If the stream is not valid JSON.
+	 */
+	public static int read(InputStream in, ResultTable table) throws IOException {
+		try (JsonParser parser = createParser(in)) {
+			int rows = 0;
+			JsonToken t;
+			while ((t = parser.nextToken()) != null) {
+				if (t == JsonToken.START_ARRAY) {
+					rows += readArray(parser, table, null);
+				} else {
+					parser.skipChildren();
+				}
+			}
+			return rows;
+		}
+	}
+
+	/* Parser of a stream, it reads a pipe as soon as bytes are available */
+	public static JsonParser createParser(InputStream in) throws IOException {
+		// a reader, encoding detection would block until the first bytes of a pipe
+		return FACTORY.createParser(new InputStreamReader(in, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Reads the rows of an array, the parser is on its START_ARRAY.
+	 * @param parser The parser.
+	 * @param table Receives the rows.
+	 * @param marker A field name marking the end of a stream, null if none.
+	 * @return int. The number of rows added, -1 if the array holds the marker.
+	 * @throws IOException If the array is not valid JSON or is truncated.
+	 */
+	public static int readArray(JsonParser parser, ResultTable table, String marker) throws IOException {
+		int rows = 0;
+		boolean marked = false;
+		JsonToken t;
+		while ((t = parser.nextToken()) != JsonToken.END_ARRAY) {
+			if (t == null) {
+				throw new IOException("unexpected end of rows");
+			}
+			if (t != JsonToken.START_OBJECT) {
+				parser.skipChildren();
+				continue;
+			}
+			// the row is added with its first column
+			int row = -1;
+			boolean markerRow = false;
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				parser.nextToken();
+				int ci = table.indexOf(field);
+				if (marker != null && marker.equals(field)) {
+					markerRow = true;
+				} else if (ci >= 0 && parser.currentToken().isScalarValue()) {
+					if (row < 0) {
+						row = table.addRow();
+					}
+					table.setString(row, ci, parser.getValueAsString());
+				} else {
+					parser.skipChildren();
+				}
+			}
+			if (markerRow) {
+				marked = true;
+			} else {
+				if (row < 0) {
+					table.addRow();
+				}
+				rows+=1;
+			}
+		}
+		return marked ? -1 : rows;
+	}
+}
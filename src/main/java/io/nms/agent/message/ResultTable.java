@@ -0,0 +1,279 @@
+package io.nms.agent.message;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+
+/**
+ * <h1>ResultTable</h1>
+ * Columnar container of Result values.
+ * Each column holds primitive long, double or String values,
+ * as declared by the Capability. Rows are reused between executions.
+ * Serialized as the "resultValues" array of arrays:
+ * numbers as strings in text formats, as native numbers in binary ones.
+ */
+@JsonSerialize(using = ResultTable.Serializer.class)
+public class ResultTable {
+
+	/**
+	 * <h1>ResultTable.ColumnType</h1>
+	 * Defines the value types of a column.
+	 */
+	public enum ColumnType {
+		LONG, DOUBLE, STRING;
+
+		public String getValue() {
+			return name().toLowerCase();
+		}
+	}
+
+	private final static int INITIAL_ROWS = 4;
+
+	private final String[] names;
+	private final ColumnType[] types;
+	private final long[][] longs;
+	private final double[][] doubles;
+	private final String[][] strings;
+	private int rows = 0;
+	private int capacity = INITIAL_ROWS;
+
+	/**
+	 * Creates an empty table.
+	 * @param columns The column names, in Result order.
+	 * @param declared The declared types, STRING for missing columns.
+	 */
+	public ResultTable(List<String> columns, Map<String, ColumnType> declared) {
+		int n = columns.size();
+		names = columns.toArray(new String[n]);
+		types = new ColumnType[n];
+		longs = new long[n][];
+		doubles = new double[n][];
+		strings = new String[n][];
+		for (int c = 0; c < n; c++) {
+			types[c] = declared.getOrDefault(names[c], ColumnType.STRING);
+			switch (types[c]) {
+				case LONG: longs[c] = new long[capacity]; break;
+				case DOUBLE: doubles[c] = new double[capacity]; break;
+				default: strings[c] = new String[capacity];
+			}
+		}
+	}
+
+	/**
+	 * Removes all rows, keeping the allocated storage.
+	 */
+	public void clear() {
+		rows = 0;
+	}
+
+	/**
+	 * Appends a row. Columns left unset are 0, or empty for strings.
+	 * @return int. The index of the new row.
+	 */
+	public int addRow() {
+		if (rows == capacity) {
+			grow();
+		}
+		for (int c = 0; c < names.length; c++) {
+			switch (types[c]) {
+				case LONG: longs[c][rows] = 0; break;
+				case DOUBLE: doubles[c][rows] = 0; break;
+				default: strings[c][rows] = "";
+			}
+		}
+		return rows++;
+	}
+
+	private void grow() {
+		capacity *= 2;
+		for (int c = 0; c < names.length; c++) {
+			switch (types[c]) {
+				case LONG: longs[c] = Arrays.copyOf(longs[c], capacity); break;
+				case DOUBLE: doubles[c] = Arrays.copyOf(doubles[c], capacity); break;
+				default: strings[c] = Arrays.copyOf(strings[c], capacity);
+			}
+		}
+	}
+
+	/**
+	 * Replaces the content by a projection of another table.
+	 * @param src The table to copy from, with the same column types.
+	 * @param columns For each column of this table, its index in src (-1 keeps the default value).
+	 */
+	public void projectFrom(ResultTable src, int[] columns) {
+		clear();
+		for (int r = 0; r < src.rows; r++) {
+			addRow();
+			for (int c = 0; c < names.length; c++) {
+				int sc = columns[c];
+				if (sc < 0) {
+					continue;
+				}
+				switch (src.types[sc]) {
+					case LONG: setLong(r, c, src.longs[sc][r]); break;
+					case DOUBLE: setDouble(r, c, src.doubles[sc][r]); break;
+					default: setString(r, c, src.strings[sc][r]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gives the position of a column.
+	 * @param name The column name.
+	 * @return int. The column index, -1 if not requested.
+	 */
+	public int indexOf(String name) {
+		for (int c = 0; c < names.length; c++) {
+			if (names[c].equals(name)) {
+				return c;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Setter methods for a cell, the value is converted if the column type differs.
+	 */
+	public void setLong(int row, int col, long value) {
+		switch (types[col]) {
+			case LONG: longs[col][row] = value; break;
+			case DOUBLE: doubles[col][row] = value; break;
+			default: strings[col][row] = String.valueOf(value);
+		}
+	}
+	public void setDouble(int row, int col, double value) {
+		switch (types[col]) {
+			case LONG: longs[col][row] = (long) value; break;
+			case DOUBLE: doubles[col][row] = value; break;
+			default: strings[col][row] = String.valueOf(value);
+		}
+	}
+	public void setString(int row, int col, String value) {
+		try {
+			switch (types[col]) {
+				case LONG: longs[col][row] = Long.parseLong(value); break;
+				case DOUBLE: doubles[col][row] = Double.parseDouble(value); break;
+				default: strings[col][row] = value;
+			}
+		} catch (NumberFormatException | NullPointerException e) {
+			// not a number, the cell stays at 0
+		}
+	}
+
+	/**
+	 * Getter methods for the table content.
+	 */
+	public int getRowCount() {
+		return rows;
+	}
+	public int getColumnCount() {
+		return names.length;
+	}
+	public String getColumnName(int col) {
+		return names[col];
+	}
+	public List<String> getColumnNames() {
+		return Arrays.asList(names);
+	}
+	public ColumnType getColumnType(int col) {
+		return types[col];
+	}
+	public long getLong(int row, int col) {
+		return longs[col][row];
+	}
+	public double getDouble(int row, int col) {
+		return doubles[col][row];
+	}
+	public String getString(int row, int col) {
+		return strings[col][row];
+	}
+
+	/**
+	 * Gives a cell as text, as in the legacy resultValues.
+	 * @return String. The value of the cell.
+	 */
+	public String getAsString(int row, int col) {
+		switch (types[col]) {
+			case LONG: return String.valueOf(longs[col][row]);
+			case DOUBLE: return String.valueOf(doubles[col][row]);
+			default: return String.valueOf(strings[col][row]);
+		}
+	}
+
+	/**
+	 * Converts the table into the legacy representation.
+	 * @return List<List<String>>. One list of values per row.
+	 */
+	public List<List<String>> toStringRows() {
+		List<List<String>> values = new ArrayList<List<String>>(rows);
+		for (int r = 0; r < rows; r++) {
+			List<String> row = new ArrayList<String>(names.length);
+			for (int c = 0; c < names.length; c++) {
+				row.add(getAsString(r, c));
+			}
+			values.add(row);
+		}
+		return values;
+	}
+
+	/**
+	 * Writes one row as an array of values.
+	 * @param gen The generator to write to.
+	 * @param row The row index.
+	 * @param typed Writes numbers as numbers if true, as strings otherwise.
+	 */
+	public void writeRow(JsonGenerator gen, int row, boolean typed) throws IOException {
+		gen.writeStartArray(names.length);
+		for (int c = 0; c < names.length; c++) {
+			switch (types[c]) {
+				case LONG:
+					if (typed) {
+						gen.writeNumber(longs[c][row]);
+					} else {
+						gen.writeString(String.valueOf(longs[c][row]));
+					}
+					break;
+				case DOUBLE:
+					if (typed) {
+						gen.writeNumber(doubles[c][row]);
+					} else {
+						gen.writeString(String.valueOf(doubles[c][row]));
+					}
+					break;
+				default:
+					gen.writeString(strings[c][row]);
+			}
+		}
+		gen.writeEndArray();
+	}
+
+	/**
+	 * Writes the values straight from the columns, without intermediate lists.
+	 */
+	public static class Serializer extends StdSerializer<ResultTable> {
+		private static final long serialVersionUID = 1L;
+
+		public Serializer() {
+			super(ResultTable.class);
+		}
+
+		@Override
+		public void serialize(ResultTable t, JsonGenerator gen, SerializerProvider provider)
+				throws IOException {
+			boolean typed = gen.canWriteBinaryNatively();
+			gen.writeStartArray(t.rows);
+			for (int r = 0; r < t.rows; r++) {
+				t.writeRow(gen, r, typed);
+			}
+			gen.writeEndArray();
+		}
+	}
+}
@@ -0,0 +1,166 @@
+package io.nms.agent.message;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * <h1>SchemaHasher</h1>
+ * Computes the schema identifying a measurement.
+ * The identifying fields are put in a canonical form
+ * (length-prefixed, parameters sorted by key) and hashed
+ * with the 128-bit MurmurHash3 (x64 variant), given as 32 hex characters.
+ * Schemas are cached, the same String instance is returned for the same fields;
+ * the least recently used are evicted beyond MAX_CACHED. Messages keep their own
+ * schema until their fields change, so hashing is mostly done once per message.
+ */
+public final class SchemaHasher {
+	public final static int MAX_CACHED = 1024 * 4;
+
+	private final static char[] HEX = "0123456789abcdef".toCharArray();
+
+	// canonical form -> schema, in access order
+	private final static Map<String, String> CACHE = Collections.synchronizedMap(
+			new LinkedHashMap<String, String>(64, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+					return size() > MAX_CACHED;
+				}
+			});
+
+	private SchemaHasher() {}
+
+	/**
+	 * Gives the schema of a measurement.
+	 * Subscribers share the measurement, their endpoint is not part of it.
+	 * @param name The action name.
+	 * @param agentId The agent identifier.
+	 * @param parameters The parameters, in any order.
+	 * @return String. The schema.
+	 */
+	public static String schema(String name, String agentId, Map<String, String> parameters) {
+		StringBuilder sb = new StringBuilder(64);
+		append(sb, name);
+		append(sb, agentId);
+		if (parameters != null) {
+			Map<String, String> sorted = new TreeMap<String, String>(parameters);
+			sb.append(sorted.size()).append('#');
+			for (Map.Entry<String, String> p : sorted.entrySet()) {
+				append(sb, p.getKey());
+				append(sb, p.getValue());
+			}
+		} else {
+			sb.append("0#");
+		}
+		String canonical = sb.toString();
+		return CACHE.computeIfAbsent(canonical, SchemaHasher::hash);
+	}
+
+	/**
+	 * Gives the schema of a measurement within this agent, e.g., to group its tasks.
+	 * @param name The action name.
+	 * @param parameters The parameters, in any order.
+	 * @return String. The schema, without agent identifier.
+	 */
+	public static String localSchema(String name, Map<String, String> parameters) {
+		return schema(name, null, parameters);
+	}
+
+	// length prefix keeps field boundaries unambiguous
+	private static void append(StringBuilder sb, String value) {
+		if (value == null) {
+			sb.append("-1:");
+		} else {
+			sb.append(value.length()).append(':').append(value);
+		}
+	}
+
+	private static String hash(String canonical) {
+		byte[] data = canonical.getBytes(StandardCharsets.UTF_8);
+		long[] h = murmur3x64128(data, 0);
+		char[] out = new char[32];
+		toHex(h[0], out, 0);
+		toHex(h[1], out, 16);
+		return new String(out);
+	}
+
+	private static void toHex(long v, char[] out, int off) {
+		for (int i = 15; i >= 0; i--) {
+			out[off + i] = HEX[(int) (v & 0xF)];
+			v >>>= 4;
+		}
+	}
+
+	/*
+	 * MurmurHash3_x64_128, by Austin Appleby (public domain)
+	 * the cases of the tail fall through, as in the reference implementation
+	 */
+	@SuppressWarnings("fallthrough")
+	private static long[] murmur3x64128(byte[] data, int seed) {
+		final long c1 = 0x87c37b91114253d5L;
+		final long c2 = 0x4cf5ad432745937fL;
+		int len = data.length;
+		int nblocks = len / 16;
+		long h1 = seed & 0xFFFFFFFFL;
+		long h2 = seed & 0xFFFFFFFFL;
+
+		for (int i = 0; i < nblocks; i++) {
+			long k1 = getLong(data, i * 16);
+			long k2 = getLong(data, i * 16 + 8);
+
+			k1 *= c1; k1 = Long.rotateLeft(k1, 31); k1 *= c2; h1 ^= k1;
+			h1 = Long.rotateLeft(h1, 27); h1 += h2; h1 = h1 * 5 + 0x52dce729;
+
+			k2 *= c2; k2 = Long.rotateLeft(k2, 33); k2 *= c1; h2 ^= k2;
+			h2 = Long.rotateLeft(h2, 31); h2 += h1; h2 = h2 * 5 + 0x38495ab5;
+		}
+
+		int tail = nblocks * 16;
+		long k1 = 0;
+		long k2 = 0;
+		switch (len & 15) {
+			case 15: k2 ^= (long) (data[tail + 14] & 0xFF) << 48;
+			case 14: k2 ^= (long) (data[tail + 13] & 0xFF) << 40;
+			case 13: k2 ^= (long) (data[tail + 12] & 0xFF) << 32;
+			case 12: k2 ^= (long) (data[tail + 11] & 0xFF) << 24;
+			case 11: k2 ^= (long) (data[tail + 10] & 0xFF) << 16;
+			case 10: k2 ^= (long) (data[tail + 9] & 0xFF) << 8;
+			case 9:  k2 ^= (long) (data[tail + 8] & 0xFF);
+				k2 *= c2; k2 = Long.rotateLeft(k2, 33); k2 *= c1; h2 ^= k2;
+			case 8:  k1 ^= (long) (data[tail + 7] & 0xFF) << 56;
+			case 7:  k1 ^= (long) (data[tail + 6] & 0xFF) << 48;
+			case 6:  k1 ^= (long) (data[tail + 5] & 0xFF) << 40;
+			case 5:  k1 ^= (long) (data[tail + 4] & 0xFF) << 32;
+			case 4:  k1 ^= (long) (data[tail + 3] & 0xFF) << 24;
+			case 3:  k1 ^= (long) (data[tail + 2] & 0xFF) << 16;
+			case 2:  k1 ^= (long) (data[tail + 1] & 0xFF) << 8;
+			case 1:  k1 ^= (long) (data[tail] & 0xFF);
+				k1 *= c1; k1 = Long.rotateLeft(k1, 31); k1 *= c2; h1 ^= k1;
+		}
+
+		h1 ^= len; h2 ^= len;
+		h1 += h2; h2 += h1;
+		h1 = fmix64(h1); h2 = fmix64(h2);
+		h1 += h2; h2 += h1;
+		return new long[] { h1, h2 };
+	}
+
+	private static long getLong(byte[] b, int i) {
+		return (b[i] & 0xFFL) | (b[i + 1] & 0xFFL) << 8 | (b[i + 2] & 0xFFL) << 16
+				| (b[i + 3] & 0xFFL) << 24 | (b[i + 4] & 0xFFL) << 32 | (b[i + 5] & 0xFFL) << 40
+				| (b[i + 6] & 0xFFL) << 48 | (b[i + 7] & 0xFFL) << 56;
+	}
+
+	private static long fmix64(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+}
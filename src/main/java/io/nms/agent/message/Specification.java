@@ -37,6 +37,7 @@ public class Specification extends Message {
 	public void setParameter(String key, String value) {
 		if (parameters.containsKey(key)) {
 			parameters.put(key, value);
+			invalidateSchema();
 		}
 	}
 	
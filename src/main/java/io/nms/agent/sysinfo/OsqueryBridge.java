@@ -0,0 +1,328 @@
+package io.nms.agent.sysinfo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import io.nms.agent.message.ResultRowReader;
+import io.nms.agent.message.ResultTable;
+import io.nms.agent.taskmanager.CommandRunner;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/*
+ * Long-lived osqueryi session shared by the osquery probes
+ * Queries are written to the stdin of one "osqueryi --json" process, each one
+ * followed by a sentinel query marking the end of its output, rows are
+ * streamed from stdout into the ResultTable of the probe.
+ * Queries are serialized, a query running past its timeout kills the process,
+ * which is started again by the next query (at most once per restartDelayMs).
+ * Configuration (module config "osquery"):
+ * - persistent: use the session, otherwise each query runs its own osqueryi (see run)
+ * - command: osqueryi and its arguments, e.g., to use a wrapper
+ * - timeoutMs: per query timeout, in both modes
+ * - restartDelayMs: minimum delay between two starts
+ */
+public class OsqueryBridge {
+	private Logger LOG = LoggerFactory.getLogger(OsqueryBridge.class);
+
+	public final static String CONFIG = "osquery";
+	public final static long DEFAULT_TIMEOUT_MS = 10000;
+	public final static long DEFAULT_RESTART_DELAY_MS = 1000;
+	public final static int MAX_PREPARED = 256;
+
+	private final static String END = "__osquery_bridge_end";
+	private final static String SENTINEL = "SELECT 1 AS " + END + ";\n";
+
+	private static OsqueryBridge instance = new OsqueryBridge();
+
+	private List<String> command = new ArrayList<String>();
+	private long timeoutMs = DEFAULT_TIMEOUT_MS;
+	private long restartDelayMs = DEFAULT_RESTART_DELAY_MS;
+	private boolean configured = false;
+
+	private final Map<String, Query> prepared = new ConcurrentHashMap<String, Query>();
+	private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "osquery-watchdog");
+		t.setDaemon(true);
+		return t;
+	});
+
+	// session, guarded by this
+	private Process process = null;
+	private OutputStream stdin = null;
+	private JsonParser stdout = null;
+	private long lastStartMs = 0;
+	private volatile boolean timedOut = false;
+
+	private final byte[] errBuffer = new byte[4096];
+
+	// some stats
+	private final LongAdder queries = new LongAdder();
+	private final LongAdder failures = new LongAdder();
+	private final LongAdder timeouts = new LongAdder();
+	private final LongAdder starts = new LongAdder();
+
+	// package-private: tests use their own session
+	OsqueryBridge() {
+		command.add("osqueryi");
+		command.add("--json");
+	}
+
+	public static OsqueryBridge getInstance() {
+		return instance;
+	}
+
+	/* True if the module config uses the persistent session (default) */
+	public static boolean isEnabled(JsonObject context) {
+		JsonObject config = (context != null) ? context.getJsonObject("config") : null;
+		return (config == null) || config.getJsonObject(CONFIG, new JsonObject()).getBoolean("persistent", true);
+	}
+
+	// applies the module configuration, the first one wins
+	public synchronized void configure(JsonObject context) {
+		JsonObject config = (context != null) ? context.getJsonObject("config") : null;
+		if (configured || config == null) {
+			return;
+		}
+		configured = true;
+		JsonObject c = config.getJsonObject(CONFIG, new JsonObject());
+		JsonArray cmd = c.getJsonArray("command");
+		if (cmd != null && !cmd.isEmpty()) {
+			command = new ArrayList<String>();
+			for (int i = 0; i < cmd.size(); i++) {
+				command.add(cmd.getString(i));
+			}
+		}
+		timeoutMs = Math.max(1, c.getLong("timeoutMs", DEFAULT_TIMEOUT_MS));
+		restartDelayMs = Math.max(0, c.getLong("restartDelayMs", DEFAULT_RESTART_DELAY_MS));
+	}
+
+	/**
+	 * Gives the prepared form of a query, cached by SQL.
+	 * @param sql One SQL statement.
+	 * @return Query. The prepared query.
+	 */
+	public Query prepare(String sql) {
+		Query q = prepared.get(sql);
+		if (q == null) {
+			if (prepared.size() >= MAX_PREPARED) {
+				prepared.clear();
+			}
+			q = new Query(sql);
+			prepared.put(sql, q);
+		}
+		return q;
+	}
+
+	/**
+	 * Runs a query, its rows are added to the table by column name.
+	 * Fields that are not columns of the table are ignored.
+	 * @param query A prepared query.
+	 * @param table Receives the rows.
+	 * @return int. The number of rows added.
+	 * @throws IOException If osquery can not be started, fails, rejects the query or times out.
+	 */
+	public synchronized int query(Query query, ResultTable table) throws IOException {
+		queries.increment();
+		start();
+		timedOut = false;
+		final Process p = process;
+		ScheduledFuture<?> timer = watchdog.schedule(() -> {
+			timedOut = true;
+			CommandRunner.destroyTree(p);
+		}, timeoutMs, TimeUnit.MILLISECONDS);
+		int rows;
+		String error;
+		try {
+			// left by previous queries or at startup
+			readErrors();
+			stdin.write(query.line);
+			stdin.flush();
+			rows = readRows(table);
+			error = readErrors();
+			// a wrapper may still write the sentinel once its children are killed
+			if (timedOut) {
+				throw new IOException("osquery: killed");
+			}
+		} catch (IOException e) {
+			// the output can not be trusted anymore
+			stop();
+			if (timedOut) {
+				timeouts.increment();
+				throw new IOException("osquery: query timed out after " + timeoutMs + " ms");
+			}
+			failures.increment();
+			throw e;
+		} finally {
+			timer.cancel(false);
+		}
+		if (error != null) {
+			failures.increment();
+			throw new IOException("osquery: " + error);
+		}
+		return rows;
+	}
+
+	// reads result arrays until the sentinel one
+	private int readRows(ResultTable table) throws IOException {
+		int rows = 0;
+		while (true) {
+			JsonToken t = stdout.nextToken();
+			if (t == null) {
+				throw new IOException("osquery: process exited");
+			}
+			if (t != JsonToken.START_ARRAY) {
+				stdout.skipChildren();
+				continue;
+			}
+			int n = ResultRowReader.readArray(stdout, table, END);
+			if (n < 0) {
+				return rows;
+			}
+			rows += n;
+		}
+	}
+
+	/**
+	 * Runs a query with its own osqueryi process, through the CommandRunner.
+	 * @param query A prepared query.
+	 * @param table Receives the rows.
+	 * @return int. The number of rows added.
+	 * @throws IOException If osquery can not be started, fails or times out.
+	 */
+	public int run(Query query, ResultTable table) throws IOException {
+		List<String> cmd;
+		synchronized (this) {
+			cmd = new ArrayList<String>(command);
+		}
+		cmd.add(query.sql);
+		final int[] rows = { 0 };
+		CommandRunner.Outcome outcome;
+		try {
+			outcome = CommandRunner.getInstance().run(cmd, timeoutMs,
+					out -> rows[0] = ResultRowReader.read(out, table));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("osquery: interrupted");
+		}
+		if (outcome.getExitCode() != 0) {
+			throw new IOException("osquery: exit code " + outcome.getExitCode()
+					+ (outcome.getStderr().isEmpty() ? "" : ", " + outcome.getStderr()));
+		}
+		return rows[0];
+	}
+
+	private void start() throws IOException {
+		if (process != null && process.isAlive()) {
+			return;
+		}
+		stop();
+		long now = System.currentTimeMillis();
+		if (now - lastStartMs < restartDelayMs) {
+			throw new IOException("osquery: restarting");
+		}
+		lastStartMs = now;
+		ProcessBuilder pb = new ProcessBuilder(command);
+		Process p = pb.start();
+		starts.increment();
+		LOG.info("Started osquery session: " + command);
+		process = p;
+		stdin = p.getOutputStream();
+		stdout = ResultRowReader.createParser(p.getInputStream());
+	}
+
+	/*
+	 * Reads what osquery wrote on stderr, without blocking: errors of a query
+	 * are written before the output of the next one, the sentinel.
+	 * Returns the first error line, null if none.
+	 */
+	private String readErrors() throws IOException {
+		InputStream err = process.getErrorStream();
+		String error = null;
+		int n;
+		while ((n = Math.min(err.available(), errBuffer.length)) > 0) {
+			n = err.read(errBuffer, 0, n);
+			if (error == null && n > 0) {
+				String text = new String(errBuffer, 0, n, StandardCharsets.UTF_8);
+				// warnings and logs are not query errors
+				for (String line : text.split("\n")) {
+					if (line.startsWith("Error")) {
+						error = line.trim();
+						break;
+					}
+				}
+			}
+		}
+		return error;
+	}
+
+	/* Stops the session, the next query starts a new one */
+	public synchronized void stop() {
+		if (process == null) {
+			return;
+		}
+		try {
+			stdin.close();
+		} catch (IOException e) {
+			// nothing to do
+		}
+		try {
+			stdout.close();
+			process.getInputStream().close();
+		} catch (IOException e) {
+			// nothing to do
+		}
+		CommandRunner.destroyTree(process);
+		process = null;
+		stdin = null;
+		stdout = null;
+	}
+
+	public JsonObject stats() {
+		return new JsonObject()
+			.put("queries", queries.sum())
+			.put("failures", failures.sum())
+			.put("timeouts", timeouts.sum())
+			.put("starts", starts.sum())
+			.put("prepared", prepared.size());
+	}
+
+	/*
+	 * A query and the bytes sent for it, followed by the sentinel
+	 */
+	public static class Query {
+		private final String sql;
+		private final byte[] line;
+
+		Query(String sql) {
+			// one statement per line
+			String s = sql.replace('\n', ' ').replace('\r', ' ').trim();
+			if (!s.endsWith(";")) {
+				s = s + ";";
+			}
+			this.sql = s;
+			this.line = (s + "\n" + SENTINEL).getBytes(StandardCharsets.UTF_8);
+		}
+
+		public String getSql() {
+			return sql;
+		}
+	}
+}
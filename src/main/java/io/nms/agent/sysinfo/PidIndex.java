@@ -0,0 +1,65 @@
+package io.nms.agent.sysinfo;
+
+import java.util.Arrays;
+
+/*
+ * Open addressing map from pid to row, without boxing
+ * pids are > 0, 0 marks a free slot. Cleared and refilled at each scan.
+ */
+class PidIndex {
+	private int[] keys = new int[1024];
+	private int[] rows = new int[1024];
+	private int size = 0;
+
+	void clear() {
+		Arrays.fill(keys, 0);
+		size = 0;
+	}
+
+	void put(int pid, int row) {
+		if ((size + 1) * 2 > keys.length) {
+			grow();
+		}
+		int mask = keys.length - 1;
+		int i = mix(pid) & mask;
+		while (keys[i] != 0 && keys[i] != pid) {
+			i = (i + 1) & mask;
+		}
+		if (keys[i] == 0) {
+			size+=1;
+		}
+		keys[i] = pid;
+		rows[i] = row;
+	}
+
+	/* Gives the row of a pid, -1 if none */
+	int get(int pid) {
+		int mask = keys.length - 1;
+		int i = mix(pid) & mask;
+		while (keys[i] != 0) {
+			if (keys[i] == pid) {
+				return rows[i];
+			}
+			i = (i + 1) & mask;
+		}
+		return -1;
+	}
+
+	private void grow() {
+		int[] oldKeys = keys;
+		int[] oldRows = rows;
+		keys = new int[oldKeys.length * 2];
+		rows = new int[oldRows.length * 2];
+		size = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != 0) {
+				put(oldKeys[i], oldRows[i]);
+			}
+		}
+	}
+
+	private static int mix(int k) {
+		int h = k * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -1,15 +1,15 @@
 package io.nms.agent.sysinfo;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.nms.agent.constants.Errors;
 import io.nms.agent.message.Message;
+import io.nms.agent.message.ResultTable.ColumnType;
 import io.nms.agent.taskmanager.AbstractAgentTask;
+import io.nms.agent.taskmanager.ColumnExtractors;
 import io.vertx.core.json.JsonObject;
 import oshi.SystemInfo;
 import oshi.hardware.CentralProcessor;
@@ -24,41 +24,78 @@ import oshi.hardware.CentralProcessor.TickType;
 public class ProbeCpu extends AbstractAgentTask {
 	private Logger LOG = LoggerFactory.getLogger(ProbeCpu.class);
 
-	private SystemInfo si = new SystemInfo();
-	private HardwareAbstractionLayer hal = si.getHardware();
-	private CentralProcessor cp = hal.getProcessor();
+	// Linux fast path, OSHI otherwise
+	private ProcStat procStat = null;
+	private long[] ticks = new long[ProcStat.TICKS];
+	private long[] curTicks = new long[ProcStat.TICKS];
+	private long ctxt = 0;
+
+	private CentralProcessor cp = null;
 	long[] prevTicks = new long[TickType.values().length];
 
+	// columns from the current /proc/stat ticks, and from OSHI
+	private final ColumnExtractors<long[]> procColumns = declareColumns(new ColumnExtractors<long[]>()
+			.doubleColumn("systemcpuload.pc", (t, i) -> ProcStat.load(ticks, t) * 100)
+			.longColumn("contextswitches.n", (t, i) -> ctxt));
+	private final ColumnExtractors<CentralProcessor> oshiColumns = declareColumns(new ColumnExtractors<CentralProcessor>()
+			.doubleColumn("systemcpuload.pc", (p, i) -> {
+				double cpuLoad = p.getSystemCpuLoadBetweenTicks(prevTicks) * 100;
+				prevTicks = p.getSystemCpuLoadTicks();
+				return cpuLoad;
+			})
+			.longColumn("contextswitches.n", (p, i) -> p.getContextSwitches()));
+
 	public ProbeCpu(Message spec, JsonObject context) {
 		super(spec, context); 
 		verb = "measure";
 		name = "cpu";
 		label = "CPU performance and info";		
 		resultColumns = Arrays.asList("systemcpuload.pc","contextswitches.n");
+		resultTypes.put("systemcpuload.pc", ColumnType.DOUBLE);
+		resultTypes.put("contextswitches.n", ColumnType.LONG);
 		role = "admin"; 
+
+		if (ProcFile.isEnabled(context)) {
+			procStat = ProcStat.getInstance();
+		}
+		if (procStat == null) {
+			initOshi();
+		}
+	}
+
+	private void initOshi() {
+		SystemInfo si = new SystemInfo();
+		HardwareAbstractionLayer hal = si.getHardware();
+		cp = hal.getProcessor();
 	}
 	
 	// implementation of Specification exec
 	protected short executeSpec() {
 		LOG.info("Probe CPU...");
-		resultValues.clear();
+		results.clear();
+		if (procStat != null) {
+			ctxt = procStat.sample(curTicks);
+			if (ctxt >= 0) {
+				putProcCpuResultValues();
+				return Errors.TASK_SUCCESS;
+			}
+			LOG.warn("Unable to read " + ProcStat.PATH + ", use OSHI.");
+			procStat = null;
+			initOshi();
+		}
 		putPhysicalCpuResultValues();
 		return Errors.TASK_SUCCESS;
 	}
+
+	private void putProcCpuResultValues() {
+		procColumns.addRow(curTicks);
+		// current ticks are the previous ones of the next load
+		long[] t = ticks;
+		ticks = curTicks;
+		curTicks = t;
+	}
   
 	private void putPhysicalCpuResultValues() { 
-		List<String> resValRow = new ArrayList<String>();
-		resValRow.addAll(specification.getResults());		
-		int ri = resValRow.indexOf("contextswitches.n");
-		if (ri >= 0) {
-			resValRow.set(ri, String.valueOf(cp.getContextSwitches()));
-		}
-		ri = resValRow.indexOf("systemcpuload.pc");
-		if (ri >= 0) {
-			double cpuLoad = cp.getSystemCpuLoadBetweenTicks( prevTicks ) * 100;
-    		prevTicks = cp.getSystemCpuLoadTicks();
-			resValRow.set(ri, String.valueOf(cpuLoad));
-		}
-		resultValues.add(resValRow);
+		oshiColumns.addRow(cp);
 	}
 }
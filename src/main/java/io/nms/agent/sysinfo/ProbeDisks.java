@@ -1,6 +1,5 @@
 package io.nms.agent.sysinfo;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import org.slf4j.Logger;
@@ -8,13 +7,15 @@ import org.slf4j.LoggerFactory;
 
 import io.nms.agent.constants.Errors;
 import io.nms.agent.taskmanager.AbstractAgentTask;
+import io.nms.agent.taskmanager.ColumnExtractors;
+import io.nms.agent.taskmanager.CounterRates;
 import io.nms.agent.message.Message;
+import io.nms.agent.message.ResultTable.ColumnType;
 import io.vertx.core.json.JsonObject;
 import oshi.SystemInfo;
 import oshi.hardware.HWDiskStore;
 import oshi.hardware.HWPartition;
 import oshi.hardware.HardwareAbstractionLayer;
-import oshi.util.FormatUtil;
 
 public class ProbeDisks extends AbstractAgentTask {
 	public final static String ERROR_PROBE_PARAMS_DNAME = "probe: invalid parameter <diskname>";
@@ -22,7 +23,60 @@ public class ProbeDisks extends AbstractAgentTask {
 	public final static String ERROR_PROBE_PARAMS_MISSING = "probe: parameter <partId> or <diskname> is missing"; 
 	public final static String ERROR_PROBE_PARTS_NOTFOUND = "probe: partitions not found"; 
 	private Logger LOG = LoggerFactory.getLogger(ProbeDisks.class);
-	private HardwareAbstractionLayer hal;
+	private HardwareAbstractionLayer hal = null;
+
+	// Linux fast path for the disk counters, OSHI otherwise and for disk information and partitions
+	private ProcDiskstats diskstats = null;
+	// disks and partitions from OSHI, enumerated again when their static attributes are refreshed
+	private List<HWDiskStore> diskStores = null;
+
+	// rates per second of the counters, by disk
+	private final static int READS = 0;
+	private final static int WRITES = 1;
+	private final static int READ_BYTES = 2;
+	private final static int WRITE_BYTES = 3;
+	private final CounterRates rates = new CounterRates(4);
+	private int rateSlot = 0;
+
+	// columns by row of /proc/diskstats, of OSHI disks and of their partitions
+	private final ColumnExtractors<ProcDiskstats> procColumns = declareColumns(new ColumnExtractors<ProcDiskstats>()
+			.stringColumn("disk.name", (d, r) -> d.getName(r))
+			.longColumn("disk.reads", (d, r) -> d.get(r, ProcDiskstats.READS))
+			.longColumn("disk.writes", (d, r) -> d.get(r, ProcDiskstats.WRITES))
+			.longColumn("disk.readbytes", (d, r) -> d.get(r, ProcDiskstats.READ_SECTORS) * ProcDiskstats.SECTOR_BYTES)
+			.longColumn("disk.writebytes", (d, r) -> d.get(r, ProcDiskstats.WRITE_SECTORS) * ProcDiskstats.SECTOR_BYTES)
+			.longColumn("disk.transfertime", (d, r) -> d.get(r, ProcDiskstats.IO_MS))
+			.longColumn("disk.cql", (d, r) -> d.get(r, ProcDiskstats.IOS_IN_PROGRESS))
+			.doubleColumn("disk.reads.ps", (d, r) -> rates.rate(rateSlot, READS, d.get(r, ProcDiskstats.READS)))
+			.doubleColumn("disk.writes.ps", (d, r) -> rates.rate(rateSlot, WRITES, d.get(r, ProcDiskstats.WRITES)))
+			.doubleColumn("disk.readbytes.ps", (d, r) -> rates.rate(rateSlot, READ_BYTES, d.get(r, ProcDiskstats.READ_SECTORS)) * ProcDiskstats.SECTOR_BYTES)
+			.doubleColumn("disk.writebytes.ps", (d, r) -> rates.rate(rateSlot, WRITE_BYTES, d.get(r, ProcDiskstats.WRITE_SECTORS)) * ProcDiskstats.SECTOR_BYTES));
+	// counters read 0 for disks without reads nor writes
+	private final ColumnExtractors<HWDiskStore> diskColumns = declareColumns(new ColumnExtractors<HWDiskStore>()
+			.stringColumn("disk.name", (d, i) -> d.getName())
+			.stringColumn("disk.model", (d, i) -> d.getModel())
+			.stringColumn("disk.serial", (d, i) -> d.getSerial())
+			.longColumn("disk.size", (d, i) -> d.getSize())
+			.longColumn("disk.reads", (d, i) -> isReadWrite(d) ? d.getReads() : 0)
+			.longColumn("disk.writes", (d, i) -> isReadWrite(d) ? d.getWrites() : 0)
+			.longColumn("disk.readbytes", (d, i) -> isReadWrite(d) ? d.getReadBytes() : 0)
+			.longColumn("disk.writebytes", (d, i) -> isReadWrite(d) ? d.getWriteBytes() : 0)
+			.longColumn("disk.transfertime", (d, i) -> isReadWrite(d) ? d.getTransferTime() : 0)
+			.longColumn("disk.cql", (d, i) -> d.getCurrentQueueLength())
+			.longColumn("disk.partsnumber", (d, i) -> (d.getPartitions() != null) ? d.getPartitions().size() : 0)
+			.doubleColumn("disk.reads.ps", (d, i) -> rates.rate(rateSlot, READS, d.getReads()))
+			.doubleColumn("disk.writes.ps", (d, i) -> rates.rate(rateSlot, WRITES, d.getWrites()))
+			.doubleColumn("disk.readbytes.ps", (d, i) -> rates.rate(rateSlot, READ_BYTES, d.getReadBytes()))
+			.doubleColumn("disk.writebytes.ps", (d, i) -> rates.rate(rateSlot, WRITE_BYTES, d.getWriteBytes())));
+	private final ColumnExtractors<HWPartition> partitionColumns = declareColumns(new ColumnExtractors<HWPartition>()
+			.stringColumn("partition.id", (p, i) -> p.getIdentification())
+			.stringColumn("partition.name", (p, i) -> p.getName())
+			.stringColumn("partition.type", (p, i) -> p.getType())
+			.stringColumn("partition.uuid", (p, i) -> p.getUuid())
+			.longColumn("partition.size", (p, i) -> p.getSize())
+			.longColumn("partition.major", (p, i) -> p.getMajor())
+			.longColumn("partition.minor", (p, i) -> p.getMinor())
+			.stringColumn("partition.mountpoint", (p, i) -> p.getMountPoint()));
 	
 	public ProbeDisks(Message spec, JsonObject context) {	
 		super(spec, context);
@@ -33,22 +87,76 @@ public class ProbeDisks extends AbstractAgentTask {
 			"disk.name","disk.model","disk.serial","disk.size","disk.reads",
 			"disk.writes","disk.readbytes","disk.writebytes","disk.cql",
 			"disk.transfertime","disk.partsnumber",
+			"disk.reads.ps","disk.writes.ps","disk.readbytes.ps","disk.writebytes.ps",
 			"partition.id","partition.name","partition.type","partition.uuid",
 			"partition.size","partition.major","partition.minor","partition.mountpoint");
+		// sent once per subscription and on change, read at each refresh only
+		staticColumns.addAll(Arrays.asList("disk.model","disk.serial","disk.size","disk.partsnumber",
+				"partition.type","partition.uuid","partition.size","partition.major",
+				"partition.minor","partition.mountpoint"));
+		for (String column : Arrays.asList("disk.size","disk.reads","disk.writes",
+				"disk.readbytes","disk.writebytes","disk.cql","disk.transfertime","disk.partsnumber",
+				"partition.size","partition.major","partition.minor")) {
+			resultTypes.put(column, ColumnType.LONG);
+		}
+		// NaN at the first execution and when a counter is reset
+		for (String column : Arrays.asList("disk.reads.ps","disk.writes.ps",
+				"disk.readbytes.ps","disk.writebytes.ps")) {
+			resultTypes.put(column, ColumnType.DOUBLE);
+		}
 	
 		/* TODO: Registry to fully use parameters */
 		// parameters.put("disk.name", "");
 		//params.put("partition.id", "");
 		
-		SystemInfo si = new SystemInfo();
-		hal = si.getHardware();
+		if (ProcFile.isEnabled(context)) {
+			diskstats = ProcDiskstats.getInstance();
+		}
+	}
+
+	private HardwareAbstractionLayer hal() {
+		if (hal == null) {
+			hal = new SystemInfo().getHardware();
+		}
+		return hal;
+	}
+
+	private boolean useProc() {
+		return diskstats != null && procColumns.coversRequest();
+	}
+
+	private static boolean isReadWrite(HWDiskStore d) {
+		return d.getReads() > 0 || d.getWrites() > 0;
 	}
 
 	// implementation of Specification exec
 	public short executeSpec() {
 		LOG.info("Probe Disks...");
-		resultValues.clear(); 
-		List<HWDiskStore> diskStores = hal.getDiskStores();
+		results.clear();
+		rates.begin();
+		if (useProc()) {
+			String diskName = specification.getParameters().get("disk.name");
+			synchronized (diskstats) {
+				if (diskstats.sample()) {
+					for (int r = 0; r < diskstats.size(); r++) {
+						if (!diskstats.isExcluded(r) && (diskName == null || diskName.equals(diskstats.getName(r)))) {
+							putProcDiskResultValues(r);
+						}
+					}
+					rates.end();
+					return Errors.TASK_SUCCESS;
+				}
+			}
+			LOG.warn("Unable to read " + ProcDiskstats.PATH + ", use OSHI.");
+			diskstats = null;
+		}
+		if (diskStores == null || refreshStatic()) {
+			diskStores = hal().getDiskStores();
+		} else {
+			for (HWDiskStore disk : diskStores) {
+				disk.updateAttributes();
+			}
+		}
 		if (specification.getResults().get(0).contains("disk.")) {
 			if (specification.getParameters().containsKey("disk.name")) {
 				String diskname = specification.getParameters().get("disk.name");
@@ -85,99 +193,22 @@ public class ProbeDisks extends AbstractAgentTask {
 				return Errors.TASK_ERROR;
 			}
 		}
+		rates.end();
 		return Errors.TASK_SUCCESS;
 	}
   
+	// called holding the diskstats lock
+	private void putProcDiskResultValues(int r) {
+		rateSlot = rates.series(diskstats.getName(r));
+		procColumns.addRow(diskstats, r);
+	}
+
 	private void putDiskResultValues(HWDiskStore d) {
-		boolean readwrite = d.getReads() > 0 || d.getWrites() > 0; 
-		List<String> resValRow = new ArrayList<String>();
-		resValRow.addAll(specification.getResults());     
-		int ri = resValRow.indexOf("disk.name");
-		if (ri >= 0) {
-			resValRow.set(ri, d.getName());
-		}
-		ri = resValRow.indexOf("disk.model");
-		if (ri >= 0) {
-			resValRow.set(ri, d.getModel());
-		}
-		ri = resValRow.indexOf("disk.serial");
-		if (ri >= 0) {
-			resValRow.set(ri, d.getSerial());
-		}
-		ri = resValRow.indexOf("disk.size");
-		if (ri >= 0) {
-			resValRow.set(ri, d.getSize() > 0 ? FormatUtil.formatBytesDecimal(d.getSize()) : "?");
-		}
-		ri = resValRow.indexOf("disk.reads");
-		if (ri >= 0) {
-			resValRow.set(ri, readwrite ? String.valueOf(d.getReads()) : "N/A");
-		}
-		ri = resValRow.indexOf("disk.writes");
-		if (ri >= 0) {
-			resValRow.set(ri, readwrite ? String.valueOf(d.getWrites()) : "N/A");
-		}
-		ri = resValRow.indexOf("disk.readbytes");
-		if (ri >= 0) {
-			resValRow.set(ri, readwrite ? FormatUtil.formatBytes(d.getReadBytes()) : "0");
-		}
-		ri = resValRow.indexOf("disk.writebytes");
-		if (ri >= 0) {
-			resValRow.set(ri, readwrite ? FormatUtil.formatBytes(d.getWriteBytes()) : "0");
-		}
-		ri = resValRow.indexOf("disk.transfertime");
-		if (ri >= 0) {
-			resValRow.set(ri, readwrite ? String.valueOf(d.getTransferTime()) : "0");
-		}
-		ri = resValRow.indexOf("disk.cql");
-		if (ri >= 0) {
-			resValRow.set(ri, String.valueOf(d.getCurrentQueueLength()));
-		}
-		ri = resValRow.indexOf("disk.partsnumber");
-		if (ri >= 0) {
-			List<HWPartition> partitions = d.getPartitions();
-			if (partitions != null) {
-				resValRow.set(ri, String.valueOf(partitions.size()));
-			} else {
-				resValRow.set(ri, "0");
-			}
-		}
-		resultValues.add(resValRow);
+		rateSlot = rates.series(d.getName());
+		diskColumns.addRow(d);
 	}
+
 	private void putPartitionResultValues(HWPartition p) {
-		List<String> resValRow = new ArrayList<String>();
-		resValRow.addAll(specification.getResults());
-		int ri = resValRow.indexOf("partition.id");
-		if (ri >= 0) {
-			resValRow.set(ri, p.getIdentification());
-		}
-		ri = resValRow.indexOf("partition.name");
-		if (ri >= 0) {
-			resValRow.set(ri, p.getName());
-		}
-		ri = resValRow.indexOf("partition.type");
-		if (ri >= 0) {
-			resValRow.set(ri, p.getType());
-		}
-		ri = resValRow.indexOf("partition.uuid");
-		if (ri >= 0) {
-			resValRow.set(ri, p.getUuid());
-		}
-		ri = resValRow.indexOf("partition.size");
-		if (ri >= 0) {
-			resValRow.set(ri, FormatUtil.formatBytes(p.getSize()));
-		}
-		ri = resValRow.indexOf("partition.major");
-		if (ri >= 0) {
-			resValRow.set(ri, String.valueOf(p.getMajor()));
-		}
-		ri = resValRow.indexOf("partition.minor");
-		if (ri >= 0) {
-			resValRow.set(ri, String.valueOf(p.getMinor()));
-		}
-		ri = resValRow.indexOf("partition.mountpoint");
-		if (ri >= 0) {
-			resValRow.set(ri, p.getMountPoint().isEmpty() ? "" : p.getMountPoint());
-		}
-		resultValues.add(resValRow);
+		partitionColumns.addRow(p);
 	}
 }
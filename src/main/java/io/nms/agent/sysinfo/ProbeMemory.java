@@ -1,23 +1,35 @@
 package io.nms.agent.sysinfo;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.nms.agent.constants.Errors;
 import io.nms.agent.taskmanager.AbstractAgentTask;
+import io.nms.agent.taskmanager.ColumnExtractors;
 import io.nms.agent.message.Message;
+import io.nms.agent.message.ResultTable.ColumnType;
 import io.vertx.core.json.JsonObject;
 import oshi.SystemInfo;
 import oshi.hardware.GlobalMemory;
 import oshi.hardware.HardwareAbstractionLayer;
-import oshi.util.FormatUtil;
 
 public class ProbeMemory extends AbstractAgentTask {
   private Logger LOG = LoggerFactory.getLogger(ProbeMemory.class);
-  private HardwareAbstractionLayer hal;
+  private HardwareAbstractionLayer hal = null;
+
+  // Linux fast path, OSHI otherwise and for the page size
+  private ProcMeminfo meminfo = null;
+  private final long[] mem = new long[2];
+
+  // columns from /proc/meminfo, and from OSHI
+  private final ColumnExtractors<long[]> procColumns = declareColumns(new ColumnExtractors<long[]>()
+      .longColumn("available.mb", (m, i) -> m[ProcMeminfo.AVAILABLE_BYTES] / (1024*1024))
+      .longColumn("total.b", (m, i) -> m[ProcMeminfo.TOTAL_BYTES]));
+  private final ColumnExtractors<GlobalMemory> oshiColumns = declareColumns(new ColumnExtractors<GlobalMemory>()
+      .longColumn("available.mb", (m, i) -> m.getAvailable() / (1024*1024))
+      .longColumn("total.b", (m, i) -> m.getTotal())
+      .longColumn("pagesize", (m, i) -> m.getPageSize()));
 	
   public ProbeMemory(Message spec, JsonObject context) {	
     super(spec, context);
@@ -26,35 +38,44 @@ public class ProbeMemory extends AbstractAgentTask {
 	label = "Physical memory usage";
 	
 	resultColumns = Arrays.asList("available.mb");
+	resultTypes.put("available.mb", ColumnType.LONG);
+	resultTypes.put("total.b", ColumnType.LONG);
+	resultTypes.put("pagesize", ColumnType.LONG);
 	role = "admin";
     
-    SystemInfo si = new SystemInfo();
-    hal = si.getHardware();
+    if (ProcFile.isEnabled(context)) {
+      meminfo = ProcMeminfo.getInstance();
+    }
+  }
+
+  private HardwareAbstractionLayer hal() {
+    if (hal == null) {
+      hal = new SystemInfo().getHardware();
+    }
+    return hal;
   }
 	
   public short executeSpec() {
     LOG.info("Probe Memory...");
-    GlobalMemory gm = hal.getMemory();
-    resultValues.clear();
+    results.clear();
+    if (meminfo != null && procColumns.coversRequest()) {
+      if (meminfo.sample(mem)) {
+        putProcMemoryResultValues();
+        return Errors.TASK_SUCCESS;
+      }
+      LOG.warn("Unable to read " + ProcMeminfo.PATH + ", use OSHI.");
+      meminfo = null;
+    }
+    GlobalMemory gm = hal().getMemory();
     putPhysicalMemoryResultValues(gm);
     return Errors.TASK_SUCCESS;
   }
+
+  private void putProcMemoryResultValues() {
+    procColumns.addRow(mem);
+  }
   
   private void putPhysicalMemoryResultValues(GlobalMemory m) { 
-    List<String> resValRow = new ArrayList<String>();
-	resValRow.addAll(specification.getResults());	
-	int ri = resValRow.indexOf("available.mb");
-	if (ri >= 0) {
-	  resValRow.set(ri, String.valueOf(m.getAvailable() / (1024*1024)));
-	}
-	ri = resValRow.indexOf("total.b");
-	if (ri >= 0) {
-	  resValRow.set(ri, String.valueOf(m.getTotal()));
-	}
-	ri = resValRow.indexOf("pagesize");
-	if (ri >= 0) {
-	  resValRow.set(ri, FormatUtil.formatBytes(m.getPageSize()));
-	}
-	resultValues.add(resValRow);
+    oshiColumns.addRow(m);
   }  
-}
+}
\ No newline at end of file
@@ -1,6 +1,5 @@
 package io.nms.agent.sysinfo;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -9,7 +8,10 @@ import org.slf4j.LoggerFactory;
 
 import io.nms.agent.constants.Errors;
 import io.nms.agent.message.Message;
+import io.nms.agent.message.ResultTable.ColumnType;
 import io.nms.agent.taskmanager.AbstractAgentTask;
+import io.nms.agent.taskmanager.ColumnExtractors;
+import io.nms.agent.taskmanager.CounterRates;
 import io.vertx.core.json.JsonObject;
 import oshi.SystemInfo;
 import oshi.hardware.HardwareAbstractionLayer;
@@ -17,7 +19,53 @@ import oshi.hardware.NetworkIF;
 
 public class ProbeNetwork extends AbstractAgentTask {
   private Logger LOG = LoggerFactory.getLogger(ProbeNetwork.class);
-  private HardwareAbstractionLayer hal;
+  private HardwareAbstractionLayer hal = null;
+
+  // Linux fast path for the counters, OSHI otherwise and for interface information
+  private ProcNetDev netDev = null;
+  // interfaces from OSHI, enumerated again when their static attributes are refreshed
+  private List<NetworkIF> netIfs = null;
+
+  // rates per second of the counters, by interface, in KB for bytes
+  private final static int BYTES_RCVD = 0;
+  private final static int BYTES_SENT = 1;
+  private final static int PKTS_RCVD = 2;
+  private final static int PKTS_SENT = 3;
+  private final CounterRates rates = new CounterRates(4);
+  private int rateSlot = 0;
+
+  // columns by row of /proc/net/dev, and of OSHI interfaces
+  private final ColumnExtractors<ProcNetDev> procColumns = declareColumns(new ColumnExtractors<ProcNetDev>()
+      .stringColumn("name", (d, r) -> d.getName(r))
+      .longColumn("bytesrcvd.kb", (d, r) -> d.get(r, ProcNetDev.RX_BYTES) / 1024)
+      .longColumn("bytessent.kb", (d, r) -> d.get(r, ProcNetDev.TX_BYTES) / 1024)
+      .longColumn("pktsrcvd.n", (d, r) -> d.get(r, ProcNetDev.RX_PACKETS))
+      .longColumn("pktssent.n", (d, r) -> d.get(r, ProcNetDev.TX_PACKETS))
+      .longColumn("inerrors.n", (d, r) -> d.get(r, ProcNetDev.RX_ERRS))
+      .longColumn("outerrors.n", (d, r) -> d.get(r, ProcNetDev.TX_ERRS))
+      .doubleColumn("bytesrcvd.kbps", (d, r) -> rates.rate(rateSlot, BYTES_RCVD, d.get(r, ProcNetDev.RX_BYTES)) / 1024)
+      .doubleColumn("bytessent.kbps", (d, r) -> rates.rate(rateSlot, BYTES_SENT, d.get(r, ProcNetDev.TX_BYTES)) / 1024)
+      .doubleColumn("pktsrcvd.ps", (d, r) -> rates.rate(rateSlot, PKTS_RCVD, d.get(r, ProcNetDev.RX_PACKETS)))
+      .doubleColumn("pktssent.ps", (d, r) -> rates.rate(rateSlot, PKTS_SENT, d.get(r, ProcNetDev.TX_PACKETS))));
+  private final ColumnExtractors<NetworkIF> oshiColumns = declareColumns(new ColumnExtractors<NetworkIF>()
+      .stringColumn("name", (n, i) -> n.getName())
+      .stringColumn("displayname", (n, i) -> n.getDisplayName())
+      .longColumn("mtu", (n, i) -> n.getMTU())
+      .longColumn("speed", (n, i) -> n.getSpeed())
+      .stringColumn("macaddress", (n, i) -> n.getMacaddr())
+      .stringColumn("ipv4address", (n, i) -> Arrays.toString(n.getIPv4addr()))
+      .stringColumn("ipv6address", (n, i) -> Arrays.toString(n.getIPv6addr()))
+      .longColumn("bytesrcvd.kb", (n, i) -> n.getBytesRecv() / 1024)
+      .longColumn("bytessent.kb", (n, i) -> n.getBytesSent() / 1024)
+      .longColumn("pktsrcvd.n", (n, i) -> n.getPacketsRecv())
+      .longColumn("pktssent.n", (n, i) -> n.getPacketsSent())
+      .longColumn("inerrors.n", (n, i) -> n.getInErrors())
+      .longColumn("outerrors.n", (n, i) -> n.getOutErrors())
+      .doubleColumn("bytesrcvd.kbps", (n, i) -> rates.rate(rateSlot, BYTES_RCVD, n.getBytesRecv()) / 1024)
+      .doubleColumn("bytessent.kbps", (n, i) -> rates.rate(rateSlot, BYTES_SENT, n.getBytesSent()) / 1024)
+      .doubleColumn("pktsrcvd.ps", (n, i) -> rates.rate(rateSlot, PKTS_RCVD, n.getPacketsRecv()))
+      .doubleColumn("pktssent.ps", (n, i) -> rates.rate(rateSlot, PKTS_SENT, n.getPacketsSent())));
+
   public ProbeNetwork(Message spec, JsonObject context) {	
     super(spec, context);
     verb = "measure";
@@ -27,22 +75,68 @@ public class ProbeNetwork extends AbstractAgentTask {
       "name",
 			"bytesrcvd.kb","bytessent.kb",
 			"pktsrcvd.n","pktssent.n",
-			"inerrors.n","outerrors.n");
+			"inerrors.n","outerrors.n",
+			"bytesrcvd.kbps","bytessent.kbps",
+			"pktsrcvd.ps","pktssent.ps");
 	  role = "admin";
+	  for (String column : Arrays.asList("mtu","speed","bytesrcvd.kb","bytessent.kb",
+	      "pktsrcvd.n","pktssent.n","inerrors.n","outerrors.n")) {
+	    resultTypes.put(column, ColumnType.LONG);
+	  }
+	  // NaN at the first execution and when a counter is reset
+	  for (String column : Arrays.asList("bytesrcvd.kbps","bytessent.kbps","pktsrcvd.ps","pktssent.ps")) {
+	    resultTypes.put(column, ColumnType.DOUBLE);
+	  }
+
+	  // sent once per subscription and on change, read at each refresh only
+	  staticColumns.addAll(Arrays.asList("displayname","mtu","speed",
+	      "macaddress","ipv4address","ipv6address"));
 
     parameters.put("itfName", "");
-   
-    SystemInfo si = new SystemInfo();
-    hal = si.getHardware();
-    si.getOperatingSystem();
+
+    if (ProcFile.isEnabled(context)) {
+      netDev = ProcNetDev.getInstance();
+    }
+  }
+
+  private HardwareAbstractionLayer hal() {
+    if (hal == null) {
+      hal = new SystemInfo().getHardware();
+    }
+    return hal;
+  }
+
+  private boolean useProc() {
+    return netDev != null && procColumns.coversRequest();
   }
 	
   public short executeSpec() {
     LOG.info("Probe Network...");
-	resultValues.clear();
-	List<String> resValRow = new ArrayList<String>();
-	resValRow.addAll(specification.getResults());
-	List<NetworkIF> netIfs = hal.getNetworkIFs();
+	results.clear();
+	rates.begin();
+	if (useProc()) {
+	  String itfName = specification.getParameters().get("itfName");
+	  synchronized (netDev) {
+	    if (netDev.sample()) {
+	      for (int r = 0; r < netDev.size(); r++) {
+	        if (!netDev.isExcluded(r) && (itfName.isEmpty() || itfName.equals(netDev.getName(r)))) {
+	          putProcNetItfResultValues(r);
+	        }
+	      }
+	      rates.end();
+	      return Errors.TASK_SUCCESS;
+	    }
+	  }
+	  LOG.warn("Unable to read " + ProcNetDev.PATH + ", use OSHI.");
+	  netDev = null;
+	}
+	if (netIfs == null || refreshStatic()) {
+	  netIfs = hal().getNetworkIFs();
+	} else {
+	  for (NetworkIF nif : netIfs) {
+	    nif.updateAttributes();
+	  }
+	}
     if ( !specification.getParameters().get("itfName").isEmpty()) {
         String itfName = specification.getParameters().get("itfName");
     	for (NetworkIF nif : netIfs) {
@@ -56,64 +150,18 @@ public class ProbeNetwork extends AbstractAgentTask {
           putNetItfResultValues(nif);
         }
     }
+	rates.end();
 	return Errors.TASK_SUCCESS;
   }
   
+  // called holding the netDev lock
+  private void putProcNetItfResultValues(int r) {
+      rateSlot = rates.series(netDev.getName(r));
+      procColumns.addRow(netDev, r);
+  }
+
   private void putNetItfResultValues(NetworkIF n) {
-	  List<String> resValRow = new ArrayList<String>();
-      resValRow.addAll(specification.getResults());     
-      int ri = resValRow.indexOf("name");
-      if (ri >= 0) {
-    	  resValRow.set(ri, n.getName());
-      }
-      ri = resValRow.indexOf("displayname");
-      if (ri >= 0) {
-    	  resValRow.set(ri, n.getDisplayName());
-      }
-      ri = resValRow.indexOf("mtu");
-      if (ri >= 0) {
-    	  resValRow.set(ri, String.valueOf(n.getMTU()));
-      }
-      ri = resValRow.indexOf("speed");
-      if (ri >= 0) {
-    	  resValRow.set(ri, String.valueOf(n.getSpeed()));
-      }
-      ri = resValRow.indexOf("macaddress");
-      if (ri >= 0) {
-    	  resValRow.set(ri, n.getMacaddr());
-      }
-      ri = resValRow.indexOf("ipv4address");
-      if (ri >= 0) {
-    	  resValRow.set(ri, Arrays.toString(n.getIPv4addr()));
-      }      
-      ri = resValRow.indexOf("ipv6address");
-      if (ri >= 0) {
-    	  resValRow.set(ri, Arrays.toString(n.getIPv6addr()));
-      }
-      ri = resValRow.indexOf("bytesrcvd.kb");
-      if (ri >= 0) {
-    	  resValRow.set(ri, String.valueOf(n.getBytesRecv() / 1024));
-      }
-      ri = resValRow.indexOf("bytessent.kb");
-      if (ri >= 0) {
-    	  resValRow.set(ri, String.valueOf(n.getBytesSent() / 1024));
-      }
-      ri = resValRow.indexOf("pktsrcvd.n");
-      if (ri >= 0) {
-    	  resValRow.set(ri, String.valueOf(n.getPacketsRecv()));
-      }
-      ri = resValRow.indexOf("pktssent.n");
-      if (ri >= 0) {
-    	  resValRow.set(ri, String.valueOf(n.getPacketsSent()));
-      }
-      ri = resValRow.indexOf("inerrors.n");
-      if (ri >= 0) {
-    	  resValRow.set(ri, String.valueOf(n.getInErrors()));
-      }      
-      ri = resValRow.indexOf("outerrors.n");
-      if (ri >= 0) {
-    	  resValRow.set(ri, String.valueOf(n.getOutErrors()));
-      }
-      resultValues.add(resValRow);
+      rateSlot = rates.series(n.getName());
+      oshiColumns.addRow(n);
   }
 }
\ No newline at end of file
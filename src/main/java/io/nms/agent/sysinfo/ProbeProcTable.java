@@ -0,0 +1,155 @@
+package io.nms.agent.sysinfo;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.nms.agent.constants.Errors;
+import io.nms.agent.message.Message;
+import io.nms.agent.message.ResultTable.ColumnType;
+import io.nms.agent.taskmanager.AbstractAgentTask;
+import io.nms.agent.taskmanager.ColumnExtractors;
+import io.vertx.core.json.JsonObject;
+
+/*
+ * Full process table of a Linux host, read from /proc (see ProcessTable)
+ * CPU usage is the share of one CPU since the previous execution.
+ * Parameters select the rows sent:
+ * - top.n: number of rows, all if empty
+ * - top.by: column to order by (default cpu.pc)
+ * - top.order: desc (default) or asc
+ */
+public class ProbeProcTable extends AbstractAgentTask {
+	public final static String TOP_N = "top.n";
+	public final static String TOP_BY = "top.by";
+	public final static String TOP_ORDER = "top.order";
+	public final static String ERROR_PROBE_PROC = "probe: /proc is not available";
+
+	private final static Map<String, Integer> FIELDS = new HashMap<String, Integer>();
+	static {
+		FIELDS.put("pid", ProcessTable.PID);
+		FIELDS.put("ppid", ProcessTable.PPID);
+		FIELDS.put("name", ProcessTable.NAME);
+		FIELDS.put("state", ProcessTable.STATE);
+		FIELDS.put("threads", ProcessTable.THREADS);
+		FIELDS.put("uid", ProcessTable.UID);
+		FIELDS.put("username", ProcessTable.USERNAME);
+		FIELDS.put("cpu.pc", ProcessTable.CPU_PC);
+		FIELDS.put("cputime.ms", ProcessTable.CPUTIME_MS);
+		FIELDS.put("rss.kb", ProcessTable.RSS_KB);
+		FIELDS.put("vsize.kb", ProcessTable.VSIZE_KB);
+	}
+
+	private Logger LOG = LoggerFactory.getLogger(ProbeProcTable.class);
+
+	private ProcessTable table = null;
+	private int[] order = null;
+
+	// columns by row of the process table
+	private final ColumnExtractors<ProcessTable> columns = declareColumns(new ColumnExtractors<ProcessTable>());
+
+	// from the parameters, set by check, or at first execution for a shared sampler
+	private boolean parsed = false;
+	private int topN = 0;
+	private int topBy = ProcessTable.CPU_PC;
+	private boolean desc = true;
+
+	public ProbeProcTable(Message spec, JsonObject context) {
+		super(spec, context);
+		verb = "collect";
+		name = "proctable";
+		label = "Process table with CPU and memory usage";
+		resultColumns = Arrays.asList("pid", "ppid", "name", "state", "threads",
+				"uid", "username", "cpu.pc", "cputime.ms", "rss.kb", "vsize.kb");
+		for (String column : Arrays.asList("pid", "ppid", "threads", "uid", "cputime.ms", "rss.kb", "vsize.kb")) {
+			resultTypes.put(column, ColumnType.LONG);
+		}
+		resultTypes.put("cpu.pc", ColumnType.DOUBLE);
+		role = "admin";
+		// reads /proc/<pid> of every process per sample
+		minAggregatePeriodMs = 1000;
+
+		for (Map.Entry<String, Integer> e : FIELDS.entrySet()) {
+			int f = e.getValue();
+			if (ProcessTable.isText(f)) {
+				columns.stringColumn(e.getKey(), (t, r) -> t.getString(r, f));
+			} else if (f == ProcessTable.CPU_PC) {
+				columns.doubleColumn(e.getKey(), (t, r) -> t.value(r, f));
+			} else {
+				columns.longColumn(e.getKey(), (t, r) -> t.getLong(r, f));
+			}
+		}
+
+		parameters.put(TOP_N, "");
+		parameters.put(TOP_BY, "cpu.pc");
+		parameters.put(TOP_ORDER, "desc");
+	}
+
+	@Override
+	public short check() {
+		short res = super.check();
+		if (res != Errors.TASK_SUCCESS) {
+			return res;
+		}
+		String error = parseTop();
+		if (error != null) {
+			errors.add(Errors.Task.PARAM_UNSUPPORTED + ": " + error);
+			return Errors.TASK_ERROR;
+		}
+		return Errors.TASK_SUCCESS;
+	}
+
+	// returns the invalid parameter, null if all are valid
+	private String parseTop() {
+		parsed = true;
+		try {
+			String n = specification.getParameter(TOP_N);
+			topN = n.isEmpty() ? 0 : Integer.parseInt(n);
+		} catch (NumberFormatException e) {
+			return TOP_N;
+		}
+		String by = specification.getParameter(TOP_BY);
+		if (!by.isEmpty()) {
+			Integer field = FIELDS.get(by);
+			if (field == null) {
+				return TOP_BY;
+			}
+			topBy = field;
+		}
+		String ord = specification.getParameter(TOP_ORDER);
+		if (!ord.isEmpty() && !ord.equals("desc") && !ord.equals("asc")) {
+			return TOP_ORDER;
+		}
+		desc = !ord.equals("asc");
+		return null;
+	}
+
+	// implementation of Specification exec
+	protected short executeSpec() {
+		LOG.info("Probe process table...");
+		results.clear();
+		if (!parsed) {
+			parseTop();
+		}
+		if (table == null) {
+			if (!ProcessTable.isAvailable()) {
+				errors.add(ERROR_PROBE_PROC);
+				return Errors.TASK_ERROR;
+			}
+			table = new ProcessTable();
+		}
+		int uidCol = results.indexOf("uid");
+		int userCol = results.indexOf("username");
+		table.scan(uidCol >= 0 || userCol >= 0 || topBy == ProcessTable.UID || topBy == ProcessTable.USERNAME);
+
+		int n = (topN <= 0) ? table.size() : Math.min(topN, table.size());
+		order = table.top(n, topBy, desc, order);
+		for (int i = 0; i < n; i++) {
+			columns.addRow(table, order[i]);
+		}
+		return Errors.TASK_SUCCESS;
+	}
+}
@@ -0,0 +1,79 @@
+package io.nms.agent.sysinfo;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/*
+ * Per block device counters from /proc/diskstats
+ * One shared reader, the file is kept open.
+ * Only whole disks (in /sys/block) are reported, loop and ram devices are excluded,
+ * names are device paths, as in OSHI.
+ * Usage: synchronized (diskstats) { diskstats.sample(); ...rows... }
+ */
+public class ProcDiskstats extends ProcTable {
+	public final static String PATH = "/proc/diskstats";
+
+	// counters of a row, in the order of the file after the name
+	public final static int READS = 0;
+	public final static int READ_SECTORS = 2;
+	public final static int WRITES = 4;
+	public final static int WRITE_SECTORS = 6;
+	public final static int IOS_IN_PROGRESS = 8;
+	public final static int IO_MS = 9;
+	public final static int FIELDS = 11;
+
+	// diskstats sectors are always 512 bytes
+	public final static long SECTOR_BYTES = 512;
+
+	private static ProcDiskstats instance = null;
+
+	private final ProcFile file = new ProcFile(PATH);
+
+	private ProcDiskstats() {
+		super(FIELDS);
+	}
+
+	/* Gives the shared reader, null if not available on this system */
+	public static synchronized ProcDiskstats getInstance() {
+		if (instance == null && ProcFile.isReadable(PATH)) {
+			instance = new ProcDiskstats();
+		}
+		return instance;
+	}
+
+	/* Reads the current counters, returns false if the file could not be read */
+	public synchronized boolean sample() {
+		reset();
+		if (!file.read()) {
+			return false;
+		}
+		while (!file.eof()) {
+			// major, minor
+			file.nextLong();
+			file.nextLong();
+			file.skipSpaces();
+			int start = file.pos;
+			int end = file.skipToken();
+			if (end > start) {
+				long[] row = addRow(file, start, end);
+				for (int i = 0; i < FIELDS; i++) {
+					long v = file.nextLong();
+					row[i] = (v >= 0) ? v : 0;
+				}
+			}
+			file.nextLine();
+		}
+		return true;
+	}
+
+	@Override
+	protected String displayName(String name) {
+		return "/dev/" + name;
+	}
+
+	@Override
+	protected boolean exclude(String name) {
+		return name.startsWith("loop") || name.startsWith("ram")
+				|| !Files.isDirectory(Paths.get("/sys/block", name));
+	}
+}
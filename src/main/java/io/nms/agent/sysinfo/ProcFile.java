@@ -0,0 +1,242 @@
+package io.nms.agent.sysinfo;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import io.vertx.core.json.JsonObject;
+
+/*
+ * A Linux pseudo-file (/proc, /sys) kept open and re-read in place
+ * Each read takes the whole content from offset 0 into a reused buffer,
+ * values are then parsed from the bytes with a cursor, without Strings.
+ * Not thread-safe, owners synchronize reads and parsing.
+ */
+public class ProcFile {
+	public final static int DEFAULT_BUFFER_BYTES = 8192;
+	public final static String CONFIG_FAST_PATH = "procFastPath";
+
+	private final Path path;
+	private FileChannel channel = null;
+	private ByteBuffer buffer;
+
+	// content of the last read and parsing cursor
+	byte[] data;
+	int length = 0;
+	int pos = 0;
+
+	public ProcFile(String path) {
+		this(path, DEFAULT_BUFFER_BYTES);
+	}
+
+	public ProcFile(String path, int bufferBytes) {
+		this.path = Paths.get(path);
+		this.buffer = ByteBuffer.allocate(Math.max(16, bufferBytes));
+		this.data = buffer.array();
+	}
+
+	/* Linux fast path is possible if the file exists and is readable */
+	public static boolean isReadable(String path) {
+		return System.getProperty("os.name", "").toLowerCase().startsWith("linux")
+				&& Files.isReadable(Paths.get(path));
+	}
+
+	/* Module config "procFastPath" (default true) enables the fast path of the probes */
+	public static boolean isEnabled(JsonObject context) {
+		JsonObject config = (context != null) ? context.getJsonObject("config") : null;
+		return (config == null) || config.getBoolean(CONFIG_FAST_PATH, true);
+	}
+
+	/**
+	 * Reads the whole content, the buffer grows until it fits.
+	 * @return boolean. false if the file can not be read, it is reopened on the next read.
+	 */
+	public boolean read() {
+		try {
+			if (channel == null) {
+				channel = FileChannel.open(path, StandardOpenOption.READ);
+			}
+			fill(channel);
+			return true;
+		} catch (IOException e) {
+			close();
+			length = 0;
+			pos = 0;
+			return false;
+		}
+	}
+
+	/**
+	 * Reads the whole content of another file in this buffer, e.g., one per process,
+	 * the file is not kept open. Parsing then applies to this content.
+	 * @param other The file path.
+	 * @return boolean. false if the file can not be read, e.g., the process ended.
+	 */
+	public boolean readFrom(String other) {
+		try (FileChannel c = FileChannel.open(Paths.get(other), StandardOpenOption.READ)) {
+			fill(c);
+			return true;
+		} catch (IOException e) {
+			length = 0;
+			pos = 0;
+			return false;
+		}
+	}
+
+	// reads from offset 0, the buffer grows until the content fits
+	private void fill(FileChannel c) throws IOException {
+		while (true) {
+			buffer.clear();
+			long offset = 0;
+			int n;
+			while (buffer.hasRemaining() && (n = c.read(buffer, offset)) > 0) {
+				offset += n;
+			}
+			if (buffer.hasRemaining()) {
+				break;
+			}
+			// full: content may be truncated, read it again in a bigger buffer
+			buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+			data = buffer.array();
+		}
+		length = buffer.position();
+		pos = 0;
+	}
+
+	public void close() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// nothing to do
+			}
+			channel = null;
+		}
+	}
+
+	public String getPath() {
+		return path.toString();
+	}
+
+	boolean eof() {
+		return pos >= length;
+	}
+
+	/* Moves the cursor to the start of the next line */
+	void nextLine() {
+		while (pos < length && data[pos] != '\n') {
+			pos+=1;
+		}
+		if (pos < length) {
+			pos+=1;
+		}
+	}
+
+	/* Skips spaces and tabs, stops at the end of line */
+	void skipSpaces() {
+		while (pos < length && (data[pos] == ' ' || data[pos] == '\t')) {
+			pos+=1;
+		}
+	}
+
+	/* True if the line at the cursor starts with the token, the cursor is not moved */
+	boolean startsWith(byte[] token) {
+		if (pos + token.length > length) {
+			return false;
+		}
+		for (int i = 0; i < token.length; i++) {
+			if (data[pos + i] != token[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/* Skips the token at the cursor, returns the position after it */
+	int skipToken() {
+		skipSpaces();
+		while (pos < length && data[pos] != ' ' && data[pos] != '\t'
+				&& data[pos] != '\n' && data[pos] != ':') {
+			pos+=1;
+		}
+		return pos;
+	}
+
+	/* Parses the next unsigned decimal of the line, -1 if there is none */
+	long nextLong() {
+		while (pos < length && data[pos] != '\n' && (data[pos] < '0' || data[pos] > '9')) {
+			pos+=1;
+		}
+		if (pos >= length || data[pos] == '\n') {
+			return -1;
+		}
+		long v = 0;
+		while (pos < length && data[pos] >= '0' && data[pos] <= '9') {
+			v = v * 10 + (data[pos] - '0');
+			pos+=1;
+		}
+		return v;
+	}
+
+	/* Parses the next hexadecimal of the line ("0x" prefix optional), -1 if there is none */
+	long nextHex() {
+		skipSpaces();
+		if (pos + 1 < length && data[pos] == '0' && (data[pos + 1] == 'x' || data[pos + 1] == 'X')) {
+			pos+=2;
+		}
+		long v = 0;
+		int digits = 0;
+		while (pos < length) {
+			int d = Character.digit(data[pos], 16);
+			if (d < 0) {
+				break;
+			}
+			v = (v << 4) | d;
+			digits+=1;
+			pos+=1;
+		}
+		return (digits > 0) ? v : -1;
+	}
+
+	/* Position of the last occurrence of a byte, -1 if none */
+	int lastIndexOf(byte b) {
+		for (int i = length - 1; i >= 0; i--) {
+			if (data[i] == b) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/* True if the bytes [start, end) equal the given ones */
+	boolean equalsAt(int start, int end, byte[] b) {
+		if (b == null || end - start != b.length) {
+			return false;
+		}
+		for (int i = 0; i < b.length; i++) {
+			if (data[start + i] != b[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	byte[] bytes(int start, int end) {
+		byte[] b = new byte[end - start];
+		System.arraycopy(data, start, b, 0, b.length);
+		return b;
+	}
+
+	static String string(byte[] b) {
+		return new String(b, StandardCharsets.US_ASCII);
+	}
+
+	static byte[] token(String s) {
+		return s.getBytes(StandardCharsets.US_ASCII);
+	}
+}
@@ -0,0 +1,71 @@
+package io.nms.agent.sysinfo;
+
+/*
+ * Total and available physical memory from /proc/meminfo
+ * One shared reader, the file is kept open.
+ * Kernels without MemAvailable (< 3.14) use free + buffers + cached.
+ */
+public class ProcMeminfo {
+	public final static String PATH = "/proc/meminfo";
+	public final static int TOTAL_BYTES = 0;
+	public final static int AVAILABLE_BYTES = 1;
+
+	private final static byte[] TOTAL = ProcFile.token("MemTotal:");
+	private final static byte[] FREE = ProcFile.token("MemFree:");
+	private final static byte[] AVAILABLE = ProcFile.token("MemAvailable:");
+	private final static byte[] BUFFERS = ProcFile.token("Buffers:");
+	private final static byte[] CACHED = ProcFile.token("Cached:");
+
+	private static ProcMeminfo instance = null;
+
+	private final ProcFile file = new ProcFile(PATH);
+
+	private ProcMeminfo() {}
+
+	/* Gives the shared reader, null if not available on this system */
+	public static synchronized ProcMeminfo getInstance() {
+		if (instance == null && ProcFile.isReadable(PATH)) {
+			instance = new ProcMeminfo();
+		}
+		return instance;
+	}
+
+	/**
+	 * Reads the current values.
+	 * @param out Receives the total and available bytes, at TOTAL_BYTES and AVAILABLE_BYTES.
+	 * @return boolean. false if the file could not be read.
+	 */
+	public synchronized boolean sample(long[] out) {
+		if (!file.read()) {
+			return false;
+		}
+		long total = -1, free = 0, available = -1, buffers = 0, cached = 0;
+		int found = 0;
+		while (!file.eof() && found < 5) {
+			if (file.startsWith(TOTAL)) {
+				total = file.nextLong();
+				found+=1;
+			} else if (file.startsWith(FREE)) {
+				free = file.nextLong();
+				found+=1;
+			} else if (file.startsWith(AVAILABLE)) {
+				available = file.nextLong();
+				found+=1;
+			} else if (file.startsWith(BUFFERS)) {
+				buffers = file.nextLong();
+				found+=1;
+			} else if (file.startsWith(CACHED)) {
+				cached = file.nextLong();
+				found+=1;
+			}
+			file.nextLine();
+		}
+		if (total < 0) {
+			return false;
+		}
+		// values are in kB
+		out[TOTAL_BYTES] = total * 1024;
+		out[AVAILABLE_BYTES] = ((available >= 0) ? available : free + buffers + cached) * 1024;
+		return true;
+	}
+}
@@ -0,0 +1,93 @@
+package io.nms.agent.sysinfo;
+
+import java.util.Arrays;
+
+/*
+ * Per interface counters from /proc/net/dev
+ * One shared reader, the file is kept open.
+ * Loopback and down interfaces are excluded, as in OSHI (interfaces known by Java),
+ * their /sys/class/net/<name>/flags files are kept open too.
+ * Usage: synchronized (netDev) { netDev.sample(); ...rows... }
+ */
+public class ProcNetDev extends ProcTable {
+	public final static String PATH = "/proc/net/dev";
+
+	// counters of a row, in the order of the file
+	public final static int RX_BYTES = 0;
+	public final static int RX_PACKETS = 1;
+	public final static int RX_ERRS = 2;
+	public final static int TX_BYTES = 8;
+	public final static int TX_PACKETS = 9;
+	public final static int TX_ERRS = 10;
+	public final static int FIELDS = 16;
+
+	private final static int IFF_UP = 0x1;
+	private final static int IFF_LOOPBACK = 0x8;
+	private final static int FLAGS_BUFFER_BYTES = 64;
+
+	private static ProcNetDev instance = null;
+
+	private final ProcFile file = new ProcFile(PATH);
+
+	// flags of the interface of each row, reopened when the name of the row changes
+	private ProcFile[] flags = new ProcFile[8];
+	private String[] flagsNames = new String[8];
+
+	private ProcNetDev() {
+		super(FIELDS);
+	}
+
+	/* Gives the shared reader, null if not available on this system */
+	public static synchronized ProcNetDev getInstance() {
+		if (instance == null && ProcFile.isReadable(PATH)) {
+			instance = new ProcNetDev();
+		}
+		return instance;
+	}
+
+	/* Reads the current counters, returns false if the file could not be read */
+	public synchronized boolean sample() {
+		reset();
+		if (!file.read()) {
+			return false;
+		}
+		// two header lines
+		file.nextLine();
+		file.nextLine();
+		while (!file.eof()) {
+			file.skipSpaces();
+			int start = file.pos;
+			int end = file.skipToken();
+			if (end > start) {
+				long[] row = addRow(file, start, end);
+				for (int i = 0; i < FIELDS; i++) {
+					long v = file.nextLong();
+					row[i] = (v >= 0) ? v : 0;
+				}
+				int r = size() - 1;
+				long f = readFlags(r);
+				setExcluded(r, (f >= 0) ? (f & IFF_LOOPBACK) != 0 || (f & IFF_UP) == 0 : "lo".equals(getName(r)));
+			}
+			file.nextLine();
+		}
+		return true;
+	}
+
+	// interface flags of a row, -1 if unknown
+	private long readFlags(int r) {
+		if (r == flags.length) {
+			flags = Arrays.copyOf(flags, r * 2);
+			flagsNames = Arrays.copyOf(flagsNames, r * 2);
+		}
+		// names are kept while unchanged, identity is enough
+		if (flagsNames[r] != getName(r)) {
+			if (flags[r] != null) {
+				flags[r].close();
+			}
+			flags[r] = new ProcFile("/sys/class/net/" + getName(r) + "/flags", FLAGS_BUFFER_BYTES);
+			flagsNames[r] = getName(r);
+		}
+		ProcFile ff = flags[r];
+		return ff.read() ? ff.nextHex() : -1;
+	}
+}
@@ -0,0 +1,69 @@
+package io.nms.agent.sysinfo;
+
+/*
+ * Aggregated CPU ticks and context switches from /proc/stat
+ * One shared reader, the file is kept open.
+ */
+public class ProcStat {
+	public final static String PATH = "/proc/stat";
+
+	// user, nice, system, idle, iowait, irq, softirq, steal (guest is counted in user)
+	public final static int TICKS = 8;
+	public final static int IDLE = 3;
+	public final static int IOWAIT = 4;
+
+	private final static byte[] CPU = ProcFile.token("cpu ");
+	private final static byte[] CTXT = ProcFile.token("ctxt ");
+
+	private static ProcStat instance = null;
+
+	private final ProcFile file = new ProcFile(PATH);
+	private final long[] ticks = new long[TICKS];
+	private long contextSwitches = 0;
+
+	private ProcStat() {}
+
+	/* Gives the shared reader, null if not available on this system */
+	public static synchronized ProcStat getInstance() {
+		if (instance == null && ProcFile.isReadable(PATH)) {
+			instance = new ProcStat();
+		}
+		return instance;
+	}
+
+	/**
+	 * Reads the current values.
+	 * @param ticksOut Receives the CPU ticks, TICKS long at least.
+	 * @return long. Context switches since boot, -1 if the file could not be read.
+	 */
+	public synchronized long sample(long[] ticksOut) {
+		if (!file.read()) {
+			return -1;
+		}
+		while (!file.eof()) {
+			if (file.startsWith(CPU)) {
+				file.skipToken();
+				for (int i = 0; i < TICKS; i++) {
+					long v = file.nextLong();
+					ticks[i] = (v >= 0) ? v : 0;
+				}
+			} else if (file.startsWith(CTXT)) {
+				file.skipToken();
+				contextSwitches = file.nextLong();
+			}
+			file.nextLine();
+		}
+		System.arraycopy(ticks, 0, ticksOut, 0, TICKS);
+		return contextSwitches;
+	}
+
+	/* Busy ratio between two samples, 0 if no tick elapsed */
+	public static double load(long[] prev, long[] cur) {
+		long total = 0;
+		for (int i = 0; i < TICKS; i++) {
+			total += cur[i] - prev[i];
+		}
+		long idle = (cur[IDLE] - prev[IDLE]) + (cur[IOWAIT] - prev[IOWAIT]);
+		return (total > 0 && idle >= 0) ? (double) (total - idle) / total : 0d;
+	}
+}
@@ -0,0 +1,79 @@
+package io.nms.agent.sysinfo;
+
+import java.util.Arrays;
+
+/*
+ * Named rows of counters parsed from a /proc file, e.g., one row per interface
+ * Rows, names and counter arrays are kept between reads: a name is only
+ * decoded when it differs from the one of the previous read at the same row.
+ * Not thread-safe, callers synchronize on the reader while sampling and reading rows.
+ */
+abstract class ProcTable {
+	private final int fields;
+	private int size = 0;
+	private byte[][] nameBytes = new byte[8][];
+	private String[] names = new String[8];
+	private boolean[] excluded = new boolean[8];
+	private long[][] values = new long[8][];
+
+	ProcTable(int fields) {
+		this.fields = fields;
+	}
+
+	/* Rows the probes do not report, checked once per new name */
+	protected boolean exclude(String name) {
+		return false;
+	}
+
+	/* Name reported for a row, e.g., as known by OSHI */
+	protected String displayName(String name) {
+		return name;
+	}
+
+	void reset() {
+		size = 0;
+	}
+
+	/* Adds the row named by the bytes [start, end) of the file */
+	long[] addRow(ProcFile file, int start, int end) {
+		int r = size;
+		if (r == names.length) {
+			int capacity = r * 2;
+			nameBytes = Arrays.copyOf(nameBytes, capacity);
+			names = Arrays.copyOf(names, capacity);
+			excluded = Arrays.copyOf(excluded, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+		if (!file.equalsAt(start, end, nameBytes[r])) {
+			nameBytes[r] = file.bytes(start, end);
+			String name = ProcFile.string(nameBytes[r]);
+			names[r] = displayName(name);
+			excluded[r] = exclude(name);
+		}
+		if (values[r] == null) {
+			values[r] = new long[fields];
+		}
+		size+=1;
+		return values[r];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public String getName(int row) {
+		return names[row];
+	}
+
+	public boolean isExcluded(int row) {
+		return excluded[row];
+	}
+
+	void setExcluded(int row, boolean excluded) {
+		this.excluded[row] = excluded;
+	}
+
+	public long get(int row, int field) {
+		return values[row][field];
+	}
+}
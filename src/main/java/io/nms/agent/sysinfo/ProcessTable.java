@@ -0,0 +1,360 @@
+package io.nms.agent.sysinfo;
+
+import java.io.File;
+import java.util.Arrays;
+
+import oshi.SystemInfo;
+
+/*
+ * Process table scanned from /proc/[pid]/stat (and /proc/[pid]/status for uids)
+ * Two snapshots in primitive arrays are swapped at each scan: the previous one,
+ * indexed by pid, gives the CPU time delta of each process (its start time tells
+ * reused pids apart). New processes report their CPU usage since they started.
+ * Arrays, the read buffer and the names of unchanged processes are reused between scans.
+ * Not thread-safe, one table per probe.
+ */
+public class ProcessTable {
+	public final static String PROC = "/proc";
+
+	// clock ticks per second of /proc (USER_HZ), 100 on all Linux architectures
+	public final static long HZ = 100;
+
+	// fields
+	public final static int PID = 0;
+	public final static int PPID = 1;
+	public final static int NAME = 2;
+	public final static int STATE = 3;
+	public final static int THREADS = 4;
+	public final static int UID = 5;
+	public final static int USERNAME = 6;
+	public final static int CPU_PC = 7;
+	public final static int CPUTIME_MS = 8;
+	public final static int RSS_KB = 9;
+	public final static int VSIZE_KB = 10;
+
+	private final static byte[] UID_LINE = ProcFile.token("Uid:");
+	private final static String[] STATES = new String[128];
+	static {
+		for (int c = 0; c < STATES.length; c++) {
+			STATES[c] = String.valueOf((char) c);
+		}
+	}
+
+	private final ProcFile file = new ProcFile(PROC + "/uptime", 4096);
+	private final File procDir = new File(PROC);
+	private final StringBuilder path = new StringBuilder(32);
+	private final UserNames users = new UserNames();
+	private long pageKb = 0;
+
+	private Snapshot cur = new Snapshot();
+	private Snapshot prev = new Snapshot();
+	private long prevNanos = 0;
+
+	/* True if /proc can be scanned on this system */
+	public static boolean isAvailable() {
+		return ProcFile.isReadable(PROC + "/self/stat");
+	}
+
+	/**
+	 * Scans all processes, the previous snapshot is kept for deltas.
+	 * @param withUids Reads the status files too, for the uid and username fields.
+	 * @return int. The number of processes.
+	 */
+	public int scan(boolean withUids) {
+		if (pageKb == 0) {
+			pageKb = Math.max(1, new SystemInfo().getHardware().getMemory().getPageSize() / 1024);
+		}
+		Snapshot s = prev;
+		prev = cur;
+		cur = s;
+		cur.clear();
+
+		long nowNanos = System.nanoTime();
+		double elapsedTicks = (prevNanos > 0) ? (nowNanos - prevNanos) * HZ / 1e9 : 0;
+		prevNanos = nowNanos;
+		long uptimeTicks = readUptimeTicks();
+
+		String[] entries = procDir.list();
+		if (entries == null) {
+			return 0;
+		}
+		for (String entry : entries) {
+			int pid = parsePid(entry);
+			if (pid <= 0) {
+				continue;
+			}
+			path.setLength(0);
+			path.append(PROC).append('/').append(pid).append("/stat");
+			if (!file.readFrom(path.toString())) {
+				// ended meanwhile
+				continue;
+			}
+			int r = cur.add(pid);
+			if (!parseStat(r)) {
+				cur.size-=1;
+				continue;
+			}
+			cur.index.put(pid, r);
+			// CPU usage since the previous scan, or since the process started
+			int p = prev.index.get(pid);
+			long ticks = cur.cpuTicks[r];
+			if (p >= 0 && prev.startTicks[p] == cur.startTicks[r] && elapsedTicks > 0) {
+				cur.cpuPc[r] = Math.max(0, ticks - prev.cpuTicks[p]) * 100d / elapsedTicks;
+			} else {
+				long age = uptimeTicks - cur.startTicks[r];
+				cur.cpuPc[r] = (age > 0) ? ticks * 100d / age : 0d;
+			}
+			if (withUids) {
+				path.setLength(path.length() - "stat".length());
+				path.append("status");
+				cur.uid[r] = file.readFrom(path.toString()) ? parseUid() : -1;
+			} else {
+				cur.uid[r] = -1;
+			}
+		}
+		return cur.size;
+	}
+
+	private static int parsePid(String entry) {
+		int pid = 0;
+		for (int i = 0; i < entry.length(); i++) {
+			char c = entry.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			pid = pid * 10 + (c - '0');
+		}
+		return pid;
+	}
+
+	private long readUptimeTicks() {
+		if (!file.read()) {
+			return 0;
+		}
+		// seconds with 2 decimals
+		long secs = file.nextLong();
+		long cents = file.nextLong();
+		return (secs * 100 + Math.max(0, cents)) * HZ / 100;
+	}
+
+	// the name is in parentheses and may hold any character, fields follow the last ')'
+	private boolean parseStat(int r) {
+		int open = -1;
+		for (int i = 0; i < file.length; i++) {
+			if (file.data[i] == '(') {
+				open = i;
+				break;
+			}
+		}
+		int close = file.lastIndexOf((byte) ')');
+		if (open < 0 || close < open || close + 2 >= file.length) {
+			return false;
+		}
+		// reuse the name of the previous scan if unchanged
+		int p = prev.index.get(cur.pid[r]);
+		if (p >= 0 && file.equalsAt(open + 1, close, prev.nameBytes[p])) {
+			cur.nameBytes[r] = prev.nameBytes[p];
+			cur.name[r] = prev.name[p];
+		} else {
+			cur.nameBytes[r] = file.bytes(open + 1, close);
+			cur.name[r] = ProcFile.string(cur.nameBytes[r]);
+		}
+		file.pos = close + 2;
+		cur.state[r] = file.data[file.pos];
+		file.pos+=1;
+		// fields 4 to 24 of proc(5), negative values are read as positive, none is used
+		long[] f = cur.fields;
+		for (int i = 4; i <= 24; i++) {
+			f[i] = file.nextLong();
+		}
+		cur.ppid[r] = (int) f[4];
+		cur.cpuTicks[r] = f[14] + f[15];
+		cur.threads[r] = (int) f[20];
+		cur.startTicks[r] = f[22];
+		cur.vsizeKb[r] = f[23] / 1024;
+		cur.rssKb[r] = f[24] * pageKb;
+		return true;
+	}
+
+	private int parseUid() {
+		while (!file.eof()) {
+			if (file.startsWith(UID_LINE)) {
+				// real uid
+				return (int) file.nextLong();
+			}
+			file.nextLine();
+		}
+		return -1;
+	}
+
+	public int size() {
+		return cur.size;
+	}
+
+	/* Numeric value of a field, for sorting and LONG columns */
+	public double value(int row, int field) {
+		switch (field) {
+			case PID: return cur.pid[row];
+			case PPID: return cur.ppid[row];
+			case THREADS: return cur.threads[row];
+			case UID: return cur.uid[row];
+			case CPU_PC: return cur.cpuPc[row];
+			case CPUTIME_MS: return cur.cpuTicks[row] * 1000 / HZ;
+			case RSS_KB: return cur.rssKb[row];
+			case VSIZE_KB: return cur.vsizeKb[row];
+			default: return 0;
+		}
+	}
+
+	public long getLong(int row, int field) {
+		return (long) value(row, field);
+	}
+
+	/* Text value of a field, null for numeric fields */
+	public String getString(int row, int field) {
+		switch (field) {
+			case NAME: return cur.name[row];
+			case STATE: return STATES[cur.state[row] & 0x7f];
+			case USERNAME: return (cur.uid[row] >= 0) ? users.name(cur.uid[row]) : "";
+			default: return null;
+		}
+	}
+
+	public static boolean isText(int field) {
+		return field == NAME || field == STATE || field == USERNAME;
+	}
+
+	/**
+	 * Selects the first rows ordered by a field.
+	 * @param n Rows to select, all if <= 0.
+	 * @param field The field to order by.
+	 * @param desc Descending order, e.g., top CPU.
+	 * @param out Receives the selected rows in order, grown if needed.
+	 * @return int[]. out, or a bigger array; the count is min(n, size()).
+	 */
+	public int[] top(int n, int field, boolean desc, int[] out) {
+		int k = (n <= 0) ? cur.size : Math.min(n, cur.size);
+		if (out == null || out.length < k) {
+			out = new int[Math.max(k, 16)];
+		}
+		// heap of the k best rows, the worst of them at the root
+		int size = 0;
+		for (int r = 0; r < cur.size; r++) {
+			if (size < k) {
+				out[size] = r;
+				siftUp(out, size, field, desc);
+				size+=1;
+			} else if (k > 0 && better(r, out[0], field, desc)) {
+				out[0] = r;
+				siftDown(out, size, 0, field, desc);
+			}
+		}
+		// pop the worst to the end: best first
+		for (int end = size - 1; end > 0; end--) {
+			int t = out[0];
+			out[0] = out[end];
+			out[end] = t;
+			siftDown(out, end, 0, field, desc);
+		}
+		return out;
+	}
+
+	// true if row a comes before row b
+	private boolean better(int a, int b, int field, boolean desc) {
+		int c;
+		if (isText(field)) {
+			String sa = getString(a, field);
+			String sb = getString(b, field);
+			c = sa.compareTo(sb);
+		} else {
+			c = Double.compare(value(a, field), value(b, field));
+		}
+		if (c == 0) {
+			// stable order by pid
+			c = Integer.compare(cur.pid[b], cur.pid[a]);
+			return c > 0;
+		}
+		return desc ? c > 0 : c < 0;
+	}
+
+	private void siftUp(int[] h, int i, int field, boolean desc) {
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!better(h[parent], h[i], field, desc)) {
+				break;
+			}
+			int t = h[parent];
+			h[parent] = h[i];
+			h[i] = t;
+			i = parent;
+		}
+	}
+
+	private void siftDown(int[] h, int size, int i, int field, boolean desc) {
+		while (true) {
+			int l = 2 * i + 1;
+			if (l >= size) {
+				break;
+			}
+			int worst = l;
+			if (l + 1 < size && better(h[l], h[l + 1], field, desc)) {
+				worst = l + 1;
+			}
+			if (!better(h[i], h[worst], field, desc)) {
+				break;
+			}
+			int t = h[i];
+			h[i] = h[worst];
+			h[worst] = t;
+			i = worst;
+		}
+	}
+
+	/*
+	 * Rows of one scan, by position, and the pid index
+	 */
+	private static class Snapshot {
+		int size = 0;
+		int[] pid = new int[256];
+		int[] ppid = new int[256];
+		int[] threads = new int[256];
+		int[] uid = new int[256];
+		byte[] state = new byte[256];
+		long[] cpuTicks = new long[256];
+		long[] startTicks = new long[256];
+		long[] rssKb = new long[256];
+		long[] vsizeKb = new long[256];
+		double[] cpuPc = new double[256];
+		String[] name = new String[256];
+		byte[][] nameBytes = new byte[256][];
+		final PidIndex index = new PidIndex();
+		// parsing scratch
+		final long[] fields = new long[25];
+
+		void clear() {
+			size = 0;
+			index.clear();
+		}
+
+		// indexed once parsed
+		int add(int p) {
+			if (size == pid.length) {
+				int capacity = size * 2;
+				pid = Arrays.copyOf(pid, capacity);
+				ppid = Arrays.copyOf(ppid, capacity);
+				threads = Arrays.copyOf(threads, capacity);
+				uid = Arrays.copyOf(uid, capacity);
+				state = Arrays.copyOf(state, capacity);
+				cpuTicks = Arrays.copyOf(cpuTicks, capacity);
+				startTicks = Arrays.copyOf(startTicks, capacity);
+				rssKb = Arrays.copyOf(rssKb, capacity);
+				vsizeKb = Arrays.copyOf(vsizeKb, capacity);
+				cpuPc = Arrays.copyOf(cpuPc, capacity);
+				name = Arrays.copyOf(name, capacity);
+				nameBytes = Arrays.copyOf(nameBytes, capacity);
+			}
+			pid[size] = p;
+			return size++;
+		}
+	}
+}
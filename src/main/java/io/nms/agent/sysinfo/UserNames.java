@@ -0,0 +1,54 @@
+package io.nms.agent.sysinfo;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * User names by uid, from /etc/passwd
+ * Reloaded when an unknown uid is asked, at most once per RELOAD_MS.
+ * Unknown uids are named by their number.
+ */
+class UserNames {
+	public final static String PASSWD = "/etc/passwd";
+	public final static long RELOAD_MS = 60000;
+
+	private Map<Integer, String> names = new HashMap<Integer, String>();
+	private long loadedMs = 0;
+
+	String name(int uid) {
+		String n = names.get(uid);
+		if (n == null && System.currentTimeMillis() - loadedMs >= RELOAD_MS) {
+			load();
+			n = names.get(uid);
+		}
+		return (n != null) ? n : String.valueOf(uid);
+	}
+
+	private void load() {
+		loadedMs = System.currentTimeMillis();
+		Map<Integer, String> loaded = new HashMap<Integer, String>();
+		try {
+			List<String> lines = Files.readAllLines(Paths.get(PASSWD), StandardCharsets.UTF_8);
+			for (String line : lines) {
+				// name:password:uid:...
+				String[] f = line.split(":", 4);
+				if (f.length >= 3) {
+					try {
+						loaded.putIfAbsent(Integer.parseInt(f[2]), f[0]);
+					} catch (NumberFormatException e) {
+						// not a user line
+					}
+				}
+			}
+		} catch (IOException e) {
+			// keep the names known so far
+			return;
+		}
+		names = loaded;
+	}
+}
@@ -6,15 +6,23 @@ import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import io.nms.agent.constants.Errors;
+import io.nms.agent.constants.Parameters;
 import io.nms.agent.message.Capability;
+import io.nms.agent.message.Encoding;
 import io.nms.agent.message.Message;
+import io.nms.agent.message.ResultTable;
+import io.nms.agent.message.SchemaHasher;
+import io.nms.agent.message.ResultTable.ColumnType;
 import io.vertx.core.json.JsonObject;
 
 /*
@@ -29,11 +37,10 @@ public abstract class AbstractAgentTask extends Thread {
 	
 	// specification to execute
 	protected Message specification;
-	protected int specNbr = 0;
 	protected JsonObject context;
   
-	// task execution results   
-	protected List<List<String>> resultValues = new ArrayList<List<String>>();
+	// task execution results, columns as requested by the Specification
+	protected ResultTable results = null;
 	// listener to send results to
 	protected AgentTaskListener tListener = null;
 	
@@ -43,6 +50,12 @@ public abstract class AbstractAgentTask extends Thread {
 	// to create the Capability (see NMS doc)
 	protected Map<String, String> parameters = new HashMap<String,String>();
 	protected List<String> resultColumns = new ArrayList<String>();
+	// value types of the numeric columns, others are strings
+	protected Map<String, ColumnType> resultTypes = new HashMap<String, ColumnType>();
+	// column accessors by source, compiled against the results (see ColumnExtractors)
+	private List<ColumnExtractors<?>> extractors = new ArrayList<ColumnExtractors<?>>();
+	// attributes rather than measures (e.g., a serial number), see StaticColumnSplit
+	protected Set<String> staticColumns = new HashSet<String>();
 	protected String label = "undefined";
 	protected String name = "undefined";
 	protected String verb = "undefined";
@@ -56,6 +69,27 @@ public abstract class AbstractAgentTask extends Thread {
 	protected Date taskStop;
 	protected int taskPeriodMs = 5000;
 	
+	// lowest aggregate (inner sampling) period, probes with costly executions raise it
+	public final static int DEFAULT_MIN_AGGREGATE_PERIOD_MS = 100;
+	protected int minAggregatePeriodMs = DEFAULT_MIN_AGGREGATE_PERIOD_MS;
+	
+	// if the Specification asks for aggregates, published once per its period
+	private WindowAggregator aggregator = null;
+	// if the Specification publishes by exception
+	private DeadbandFilter deadband = null;
+	// if static columns are requested
+	private StaticColumnSplit split = null;
+	// the table handed to the listener
+	private ResultTable published = null;
+	// if the Specification collects a past window, answered from the SeriesStore at check
+	private boolean historical = false;
+	private String samplingKey = null;
+	
+	// executions between two reads of the static attributes by the probe
+	public final static int DEFAULT_STATIC_REFRESH_PERIODS = 12;
+	private int staticRefreshPeriods = DEFAULT_STATIC_REFRESH_PERIODS;
+	private volatile int staticAge = 0;
+	
 	// implement this to execute the task
 	protected abstract short executeSpec();
 	
@@ -63,7 +97,16 @@ public abstract class AbstractAgentTask extends Thread {
 		this.taskId = "unknown";
 		this.specification = specification;
 		this.context = context;
-		this.specNbr = 1;
+		JsonObject config = (context != null) ? context.getJsonObject("config") : null;
+		if (config != null) {
+			staticRefreshPeriods = config.getInteger("staticRefreshPeriods", DEFAULT_STATIC_REFRESH_PERIODS);
+		}
+	}
+	
+	/* Registers the column accessors of a source, called in the constructor */
+	protected <T> ColumnExtractors<T> declareColumns(ColumnExtractors<T> columns) {
+		extractors.add(columns);
+		return columns;
 	}
 	
 	// used to receive results
@@ -80,8 +123,14 @@ public abstract class AbstractAgentTask extends Thread {
 		capability.setVerb(verb);
 		capability.setWhen(Message.Format.WHEN + String.valueOf(taskPeriodMs));
 		capability.setResults(resultColumns);
+		List<String> types = new ArrayList<String>();
+		for (String column : resultColumns) {
+			types.add(resultTypes.getOrDefault(column, ColumnType.STRING).getValue());
+		}
+		capability.setResultTypes(types);
 		capability.setParameters(parameters);
 		capability.setRole(role);
+		capability.setEncodings(Encoding.names());
 		//capability.setTimestampNow();
 		return capability;
 	}
@@ -103,7 +152,7 @@ public abstract class AbstractAgentTask extends Thread {
 		
 		/* TODO: support taskStart in future, currently supports only 'now' */
 		
-		// check specification period
+		// check specification period, the capability period is the minimum
 		if (specification.getPeriod() < taskPeriodMs) {
 			this.errors.add(Errors.Task.WHEN_UNSUPPORTED);
 			return Errors.TASK_ERROR;
@@ -132,7 +181,158 @@ public abstract class AbstractAgentTask extends Thread {
 				taskStop = Date.from(Instant.now().plusMillis(taskPeriodMs + 500));
 			}
 		}
-		return Errors.TASK_SUCCESS;
+		// a past window may be in the SeriesStore, with the time of the samples
+		boolean past = "collect".equals(specification.getVerb()) && specification.getStop() != null
+				&& specification.getStop().before(new Date()) && SeriesStore.getInstance().isEnabled();
+		if (past) {
+			resultTypes.put(SeriesStore.TIME_COLUMN, ColumnType.LONG);
+		}
+		
+		// unknown columns are rejected rather than sent back empty
+		for (String column : specification.getResults()) {
+			if (!isColumn(column) && !(past && column.equals(SeriesStore.TIME_COLUMN))) {
+				this.errors.add(Errors.Task.RESULT_UNSUPPORTED + ": " + column);
+				return Errors.TASK_ERROR;
+			}
+		}
+		results = new ResultTable(specification.getResults(), resultTypes);
+		compileColumns();
+		if (past) {
+			int rows = SeriesStore.getInstance().query(samplingKey(),
+					specification.getStart().getTime(), specification.getStop().getTime(), results);
+			if (rows >= 0) {
+				LOG.info("Collection answered from history: " + rows + " samples.");
+				historical = true;
+				return Errors.TASK_SUCCESS;
+			}
+			if (results.indexOf(SeriesStore.TIME_COLUMN) >= 0) {
+				this.errors.add(Errors.Task.HISTORY_UNAVAILABLE);
+				return Errors.TASK_ERROR;
+			}
+		}
+		short res = checkAggregate();
+		if (res != Errors.TASK_SUCCESS) {
+			return res;
+		}
+		split = new StaticColumnSplit((aggregator != null) ? aggregator.getTable() : results, staticColumns);
+		if (!split.isActive()) {
+			split = null;
+		}
+		return checkDeadband();
+	}
+	
+	private short checkDeadband() {
+		String value = specification.getParameter(Parameters.DEADBAND);
+		if (value.isEmpty()) {
+			return Errors.TASK_SUCCESS;
+		}
+		try {
+			deadband = DeadbandFilter.parse(value, specification.getParameter(Parameters.HEARTBEAT));
+			return Errors.TASK_SUCCESS;
+		} catch (IllegalArgumentException e) {
+			this.errors.add(Errors.Task.PARAM_UNSUPPORTED + ": " + Parameters.DEADBAND);
+			return Errors.TASK_ERROR;
+		}
+	}
+	
+	// samples at the aggregate period, the Specification period becomes the window
+	private short checkAggregate() {
+		String period = specification.getParameter(Parameters.AGGREGATE_PERIOD);
+		if (period.isEmpty()) {
+			return Errors.TASK_SUCCESS;
+		}
+		try {
+			int periodMs = Integer.parseInt(period);
+			String q = specification.getParameter(Parameters.AGGREGATE_QUANTILES);
+			double[] quantiles = WindowAggregator.parseQuantiles(q.isEmpty() ? WindowAggregator.DEFAULT_QUANTILES : q);
+			// not bound by the capability period, but by the probe cost and the scheduler resolution
+			long minPeriodMs = Math.max(minAggregatePeriodMs, TaskManager.getInstance().getTickMs());
+			if (periodMs < minPeriodMs || periodMs >= taskPeriodMs) {
+				throw new IllegalArgumentException(period);
+			}
+			aggregator = new WindowAggregator(results, quantiles, taskPeriodMs);
+			taskPeriodMs = periodMs;
+			return Errors.TASK_SUCCESS;
+		} catch (IllegalArgumentException e) {
+			this.errors.add(Errors.Task.PARAM_UNSUPPORTED + ": " + Parameters.AGGREGATE_PERIOD);
+			return Errors.TASK_ERROR;
+		}
+	}
+	
+	/* True if the results are aggregates, sampled at the aggregate period */
+	boolean isAggregating() {
+		return aggregator != null;
+	}
+	
+	/* True if the results are a past window, complete once checked: not to be scheduled */
+	public boolean isHistorical() {
+		return historical;
+	}
+	
+	/* Parameters changing the sampling: all but the reserved publish. and aggregate. ones */
+	Map<String, String> samplingParameters() {
+		Map<String, String> params = new TreeMap<String, String>();
+		if (specification.getParameters() != null) {
+			for (Map.Entry<String, String> p : specification.getParameters().entrySet()) {
+				if (!p.getKey().startsWith("publish.") && !p.getKey().startsWith("aggregate.")) {
+					params.put(p.getKey(), p.getValue());
+				}
+			}
+		}
+		return params;
+	}
+	
+	/* Identifies what the task measures: its class and sampling parameters, fixed once checked */
+	String samplingKey() {
+		if (samplingKey == null) {
+			samplingKey = getClass().getName() + "|" + SchemaHasher.localSchema(name, samplingParameters());
+		}
+		return samplingKey;
+	}
+	
+	private boolean isColumn(String column) {
+		if (resultColumns.contains(column) || resultTypes.containsKey(column)) {
+			return true;
+		}
+		for (ColumnExtractors<?> e : extractors) {
+			if (e.contains(column)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/* Columns a shared sampler measures for the task, null if it cannot be shared:
+	 * those of the first declared source covering the request (e.g., /proc before OSHI),
+	 * of the capability if it does not declare sources */
+	List<String> samplingColumns() {
+		if (extractors.isEmpty()) {
+			return resultColumns.containsAll(results.getColumnNames()) ? resultColumns : null;
+		}
+		for (ColumnExtractors<?> e : extractors) {
+			if (e.coversRequest()) {
+				return new ArrayList<String>(e.names());
+			}
+		}
+		return null;
+	}
+	
+	private void compileColumns() {
+		for (ColumnExtractors<?> e : extractors) {
+			e.compile(results);
+		}
+	}
+	
+	/* Prepares the task to sample the columns of its Specification until canceled,
+	 * used by the SamplingCoordinator */
+	void initSampler() {
+		taskStop = null;
+		results = new ResultTable(specification.getResults(), resultTypes);
+		compileColumns();
+	}
+	
+	public Date getTaskStop() {
+		return taskStop;
 	}
 	
 	public long getInitialDelayMs() {
@@ -155,8 +355,49 @@ public abstract class AbstractAgentTask extends Thread {
 		return taskId;
 	}
 	
-	public List<List<String>> getResultValues() {
-		return resultValues;
+	/* Results to publish: the last sample, or the aggregates of the last window,
+	 * without the static columns once sent */
+	public ResultTable getResults() {
+		if (published != null) {
+			return published;
+		}
+		return (aggregator != null) ? aggregator.getTable() : results;
+	}
+	
+	/* Hands an execution to the listener, at the end of the window when aggregating,
+	 * if it moved beyond the deadband if any. Returns true if handed */
+	boolean deliver(short resultCode, Timestamp ts) {
+		if (resultCode == Errors.TASK_SUCCESS) {
+			if (aggregator != null && !aggregator.add(results, System.nanoTime(), taskPeriodMs * 1000000L)) {
+				return false;
+			}
+			ResultTable out = (aggregator != null) ? aggregator.getTable() : results;
+			if (deadband != null && !deadband.accept(out)) {
+				return false;
+			}
+			published = (split != null) ? split.split(out) : out;
+		}
+		tListener.onResult(taskId, resultCode, ts);
+		return true;
+	}
+	
+	/* The next result carries the static columns again, e.g., for a new subscriber */
+	public void resendStaticColumns() {
+		staticAge = 0;
+		if (split != null) {
+			split.force();
+		}
+	}
+	
+	/* Called once per execution by probes caching their static attributes:
+	 * true if they must be read again, every staticRefreshPeriods executions */
+	protected boolean refreshStatic() {
+		if (staticAge <= 0) {
+			staticAge = staticRefreshPeriods;
+			return true;
+		}
+		staticAge-=1;
+		return false;
 	}
 	public List<String> getErrors() {
 		return errors;
@@ -169,16 +410,6 @@ public abstract class AbstractAgentTask extends Thread {
 		this.specification = specification;
 	}
 	
-	public int incrementSpecNbr() {
-		this.specNbr+=1;
-		return this.specNbr;
-	}
-	
-	public int decrementSpecNbr() {
-		this.specNbr-=1;
-		return this.specNbr;
-	}
-	
 	@Override
 	public void run() {
 		if (tListener == null) {
@@ -193,7 +424,7 @@ public abstract class AbstractAgentTask extends Thread {
 		// if periodic execution
 		} else*/ 
 		LOG.info("Run task with context: "+context.encodePrettily());
-		if (this.taskStop.before(new Date())) {
+		if ((this.taskStop != null) && this.taskStop.before(new Date())) {
 			LOG.info("Task terminated.");
 			tListener.onFinished(taskId);
 			return;
@@ -201,7 +432,8 @@ public abstract class AbstractAgentTask extends Thread {
 			short resultCode = executeSpec();
 			Timestamp ts = new Timestamp(new Date().getTime());
 			if (resultCode == Errors.TASK_SUCCESS) {
-				this.tListener.onResult(taskId, resultCode, ts);
+				SeriesStore.getInstance().record(samplingKey(), results, taskPeriodMs);
+				deliver(resultCode, ts);
 			} else {
 				LOG.warn("Something went wrong with task "+taskId);
 			}
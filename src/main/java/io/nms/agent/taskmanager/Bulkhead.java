@@ -0,0 +1,88 @@
+package io.nms.agent.taskmanager;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.vertx.core.json.JsonObject;
+
+/*
+ * Isolated executor for the tasks of one capability class
+ * a blocking probe only delays the tasks of its own class.
+ * Keeps queue depth and lateness (time between due and start) metrics
+ */
+public class Bulkhead {
+	public final static int DEFAULT_THREADS = 1;
+	public final static int DEFAULT_QUEUE = 256;
+
+	private final String name;
+	private final ThreadPoolExecutor executor;
+
+	// some stats
+	private final LongAdder executed = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder skipped = new LongAdder();
+	private final LongAdder latenessSumMs = new LongAdder();
+	private final AtomicLong latenessMaxMs = new AtomicLong(0);
+	private volatile long lastLatenessMs = 0;
+
+	public Bulkhead(String name, int threads, int queue) {
+		this.name = name;
+		final AtomicInteger count = new AtomicInteger(0);
+		this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(Math.max(1, queue)),
+				r -> new Thread(r, "task-" + name + "-" + count.incrementAndGet()));
+	}
+
+	/* Runs the task on this bulkhead, returns null if the queue is full */
+	public Future<?> execute(Runnable task, long dueNanos) {
+		try {
+			return executor.submit(() -> {
+				record((System.nanoTime() - dueNanos) / 1000000);
+				task.run();
+			});
+		} catch (RejectedExecutionException e) {
+			rejected.increment();
+			return null;
+		}
+	}
+
+	/* Counts a run skipped because the previous one did not start or end yet */
+	public void skip() {
+		skipped.increment();
+	}
+
+	private void record(long latenessMs) {
+		executed.increment();
+		lastLatenessMs = latenessMs;
+		latenessSumMs.add(latenessMs);
+		latenessMaxMs.accumulateAndGet(latenessMs, Math::max);
+	}
+
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public JsonObject stats() {
+		long n = executed.sum();
+		return new JsonObject()
+			.put("threads", executor.getMaximumPoolSize())
+			.put("active", executor.getActiveCount())
+			.put("queueDepth", executor.getQueue().size())
+			.put("executed", n)
+			.put("rejected", rejected.sum())
+			.put("skipped", skipped.sum())
+			.put("lastLatenessMs", lastLatenessMs)
+			.put("avgLatenessMs", (n > 0) ? latenessSumMs.sum() / n : 0)
+			.put("maxLatenessMs", latenessMaxMs.get());
+	}
+}
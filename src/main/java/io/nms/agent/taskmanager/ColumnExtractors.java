@@ -0,0 +1,126 @@
+package io.nms.agent.taskmanager;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import io.nms.agent.message.ResultTable;
+
+/*
+ * Column accessors of a capability for one kind of source, e.g., a network interface
+ * Accessors are declared once by column name, then compiled against the columns
+ * of the ResultTable of a task: filling a row is a loop over the requested columns.
+ * An accessor receives the source and an index, the row of the source when it
+ * is a table (e.g., a /proc file), unused otherwise.
+ * Registered on the task (see AbstractAgentTask.declareColumns), compiled at check.
+ */
+public class ColumnExtractors<T> {
+
+	public interface LongColumn<T> {
+		long get(T source, int index);
+	}
+
+	public interface DoubleColumn<T> {
+		double get(T source, int index);
+	}
+
+	public interface StringColumn<T> {
+		String get(T source, int index);
+	}
+
+	private final Map<String, Extractor<T>> columns = new LinkedHashMap<String, Extractor<T>>();
+
+	// compiled, by position in the table, null for columns of other sources
+	private ResultTable table = null;
+	private Extractor<T>[] compiled = null;
+
+	public ColumnExtractors<T> longColumn(String name, LongColumn<T> get) {
+		columns.put(name, (s, i, t, row, col) -> t.setLong(row, col, get.get(s, i)));
+		return this;
+	}
+
+	public ColumnExtractors<T> doubleColumn(String name, DoubleColumn<T> get) {
+		columns.put(name, (s, i, t, row, col) -> t.setDouble(row, col, get.get(s, i)));
+		return this;
+	}
+
+	public ColumnExtractors<T> stringColumn(String name, StringColumn<T> get) {
+		columns.put(name, (s, i, t, row, col) -> t.setString(row, col, get.get(s, i)));
+		return this;
+	}
+
+	public Set<String> names() {
+		return columns.keySet();
+	}
+
+	public boolean contains(String name) {
+		return columns.containsKey(name);
+	}
+
+	/* True if at least one requested column has an accessor here */
+	public boolean isRequested() {
+		if (compiled == null) {
+			return false;
+		}
+		for (Extractor<T> e : compiled) {
+			if (e != null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/* True if all requested columns have an accessor here */
+	public boolean coversRequest() {
+		if (compiled == null) {
+			return false;
+		}
+		for (Extractor<T> e : compiled) {
+			if (e == null) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/* Resolves the accessors of the columns of a table, once per task */
+	@SuppressWarnings("unchecked")
+	void compile(ResultTable table) {
+		Extractor<T>[] c = (Extractor<T>[]) new Extractor<?>[table.getColumnCount()];
+		for (int col = 0; col < c.length; col++) {
+			c[col] = columns.get(table.getColumnName(col));
+		}
+		this.table = table;
+		this.compiled = c;
+	}
+
+	/**
+	 * Adds a row filled from a source.
+	 * @param source The source of the values.
+	 * @param index The row of the source, if any.
+	 * @return int. The index of the new row.
+	 */
+	public int addRow(T source, int index) {
+		int row = table.addRow();
+		fill(source, index, row);
+		return row;
+	}
+
+	public int addRow(T source) {
+		return addRow(source, 0);
+	}
+
+	/* Sets the columns of an existing row that have an accessor here */
+	public void fill(T source, int index, int row) {
+		Extractor<T>[] c = compiled;
+		for (int col = 0; col < c.length; col++) {
+			if (c[col] != null) {
+				c[col].put(source, index, table, row, col);
+			}
+		}
+	}
+
+	private interface Extractor<T> {
+		void put(T source, int index, ResultTable table, int row, int col);
+	}
+}
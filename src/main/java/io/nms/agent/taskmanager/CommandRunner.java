@@ -0,0 +1,230 @@
+package io.nms.agent.taskmanager;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+import io.vertx.core.json.JsonObject;
+
+/*
+ * Runs the external commands of command-backed capabilities
+ * stdout is streamed to the caller while stderr is drained on another thread,
+ * so a command never blocks on a full pipe.
+ * A hard timeout kills the command and its descendants (Java 9+, the command only otherwise).
+ * A global semaphore caps the number of commands running at once.
+ * Configuration ("scheduler" / "commands"):
+ * - maxConcurrent: commands running at once
+ * - timeoutMs: default timeout
+ */
+public class CommandRunner {
+	public final static int DEFAULT_MAX_CONCURRENT = 4;
+	public final static long DEFAULT_TIMEOUT_MS = 30000;
+	public final static int MAX_STDERR_BYTES = 4096;
+
+	private static CommandRunner instance = new CommandRunner();
+
+	private volatile Semaphore permits = new Semaphore(DEFAULT_MAX_CONCURRENT, true);
+	private volatile int maxConcurrent = DEFAULT_MAX_CONCURRENT;
+	private volatile long timeoutMs = DEFAULT_TIMEOUT_MS;
+
+	private final AtomicInteger threads = new AtomicInteger(0);
+	private final ExecutorService drains = Executors.newCachedThreadPool(r -> {
+		Thread t = new Thread(r, "command-stderr-" + threads.incrementAndGet());
+		t.setDaemon(true);
+		return t;
+	});
+	private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "command-watchdog");
+		t.setDaemon(true);
+		return t;
+	});
+
+	// some stats
+	private final LongAdder started = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder timedOut = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+
+	/* Consumes the stdout of a command, returning early discards the rest */
+	public interface OutputHandler {
+		void accept(InputStream stdout) throws IOException;
+	}
+
+	private CommandRunner() {}
+
+	public static CommandRunner getInstance() {
+		return instance;
+	}
+
+	public synchronized void configure(JsonObject config) {
+		if (config == null) {
+			return;
+		}
+		int max = Math.max(1, config.getInteger("maxConcurrent", DEFAULT_MAX_CONCURRENT));
+		if (max != maxConcurrent) {
+			maxConcurrent = max;
+			permits = new Semaphore(max, true);
+		}
+		timeoutMs = Math.max(1, config.getLong("timeoutMs", DEFAULT_TIMEOUT_MS));
+	}
+
+	public long getTimeoutMs() {
+		return timeoutMs;
+	}
+
+	/**
+	 * Runs a command, waiting for a slot if the cap is reached.
+	 * @param command The command and its arguments, no shell is involved.
+	 * @param timeoutMs Time allowed, from the request to the end of the command, including the wait for a slot.
+	 * @param handler Consumes stdout, in the calling thread.
+	 * @return Outcome. Exit code and stderr of the command.
+	 * @throws IOException If the command can not start, its output handler fails, or it times out.
+	 * @throws InterruptedException If the calling thread is interrupted, the command is then killed.
+	 */
+	public Outcome run(List<String> command, long timeoutMs, OutputHandler handler)
+			throws IOException, InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+		Semaphore slots = permits;
+		if (!slots.tryAcquire(timeoutMs, TimeUnit.MILLISECONDS)) {
+			rejected.increment();
+			throw new IOException("command: no slot within " + timeoutMs + " ms (" + maxConcurrent + " running)");
+		}
+		Process p = null;
+		try {
+			p = new ProcessBuilder(command).start();
+			started.increment();
+			p.getOutputStream().close();
+			final Process proc = p;
+			final AtomicBoolean killed = new AtomicBoolean(false);
+			long left = Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+			ScheduledFuture<?> timer = watchdog.schedule(() -> {
+				killed.set(true);
+				destroyTree(proc);
+			}, left, TimeUnit.MILLISECONDS);
+			Future<String> stderr = drains.submit(() -> drain(proc.getErrorStream()));
+			try (InputStream stdout = p.getInputStream()) {
+				handler.accept(stdout);
+				// whatever the handler left
+				byte[] skip = new byte[8192];
+				while (stdout.read(skip) >= 0) {
+					// discarded
+				}
+			} catch (IOException e) {
+				if (!killed.get()) {
+					failed.increment();
+					throw e;
+				}
+			} finally {
+				timer.cancel(false);
+			}
+			left = Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+			if (killed.get() || !p.waitFor(left, TimeUnit.MILLISECONDS)) {
+				timedOut.increment();
+				throw new IOException("command: timed out after " + timeoutMs + " ms");
+			}
+			String errors;
+			try {
+				errors = stderr.get(Math.max(1, left), TimeUnit.MILLISECONDS);
+			} catch (Exception e) {
+				errors = "";
+			}
+			if (p.exitValue() != 0) {
+				failed.increment();
+			}
+			return new Outcome(p.exitValue(), errors);
+		} catch (IOException | InterruptedException e) {
+			if (p == null) {
+				failed.increment();
+			}
+			throw e;
+		} finally {
+			if (p != null && p.isAlive()) {
+				destroyTree(p);
+			}
+			slots.release();
+		}
+	}
+
+	// keeps the first bytes, reads all to never block the command
+	private static String drain(InputStream in) throws IOException {
+		ByteArrayOutputStream kept = new ByteArrayOutputStream();
+		byte[] buf = new byte[1024];
+		int n;
+		try (InputStream err = in) {
+			while ((n = err.read(buf)) >= 0) {
+				int keep = Math.min(n, MAX_STDERR_BYTES - kept.size());
+				if (keep > 0) {
+					kept.write(buf, 0, keep);
+				}
+			}
+		}
+		return new String(kept.toByteArray(), StandardCharsets.UTF_8).trim();
+	}
+
+	/* Kills a process and its descendants, descendants are only known from Java 9 */
+	public static void destroyTree(Process p) {
+		try {
+			Method descendants = Process.class.getMethod("descendants");
+			Method destroy = Class.forName("java.lang.ProcessHandle").getMethod("destroyForcibly");
+			try (Stream<?> handles = (Stream<?>) descendants.invoke(p)) {
+				handles.forEach(h -> {
+					try {
+						destroy.invoke(h);
+					} catch (ReflectiveOperationException e) {
+						// already gone
+					}
+				});
+			}
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// Java 8, the process only
+		}
+		p.destroyForcibly();
+	}
+
+	public JsonObject stats() {
+		Semaphore slots = permits;
+		return new JsonObject()
+			.put("maxConcurrent", maxConcurrent)
+			.put("running", maxConcurrent - slots.availablePermits())
+			.put("waiting", slots.getQueueLength())
+			.put("started", started.sum())
+			.put("failed", failed.sum())
+			.put("timedOut", timedOut.sum())
+			.put("rejected", rejected.sum());
+	}
+
+	/*
+	 * The end of a command
+	 */
+	public static class Outcome {
+		private final int exitCode;
+		private final String stderr;
+
+		Outcome(int exitCode, String stderr) {
+			this.exitCode = exitCode;
+			this.stderr = stderr;
+		}
+
+		public int getExitCode() {
+			return exitCode;
+		}
+
+		public String getStderr() {
+			return stderr;
+		}
+	}
+}
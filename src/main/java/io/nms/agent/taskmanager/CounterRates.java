@@ -0,0 +1,147 @@
+package io.nms.agent.taskmanager;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/*
+ * Rates per second of cumulative counters, e.g., bytes received by an interface
+ * One store per task and schema: each series (an interface, a disk...) has a slot
+ * holding the previous value of its counters and the monotonic time of its sample,
+ * in primitive arrays. A sample of all series is framed by begin() and end();
+ * series not seen in a sample are evicted.
+ * A counter below its previous value has wrapped if both fit in 32 bits and the
+ * wrapped delta is plausible, it has been reset otherwise (e.g., driver reload).
+ * The rate of a new series or of a reset counter is unknown: NaN.
+ * Not thread-safe, one store per probe.
+ */
+public class CounterRates {
+	private final static long MAX_32 = 0xFFFFFFFFL;
+
+	private final int counters;
+	private final Map<String, Integer> slots = new HashMap<String, Integer>();
+	private int[] free = new int[8];
+	private int freeCount = 0;
+	private int capacity = 0;
+
+	// by slot
+	private long[] lastNanos = new long[0];
+	private long[] elapsedNanos = new long[0];
+	private long[] seen = new long[0];
+	// by slot * counters + counter
+	private long[] values = new long[0];
+
+	private long generation = 0;
+	private long nowNanos = 0;
+
+	// some stats
+	private long wraps = 0;
+	private long resets = 0;
+
+	/**
+	 * Creates an empty store.
+	 * @param counters The number of counters of each series.
+	 */
+	public CounterRates(int counters) {
+		this.counters = counters;
+	}
+
+	/* Starts a sample of the series, at the current time */
+	public void begin() {
+		generation+=1;
+		nowNanos = System.nanoTime();
+	}
+
+	/**
+	 * Selects a series in the current sample, once per series.
+	 * @param key The name of the series, e.g., the interface name.
+	 * @return int. The slot of the series.
+	 */
+	public int series(String key) {
+		Integer s = slots.get(key);
+		int slot;
+		if (s == null) {
+			slot = allocate();
+			slots.put(key, slot);
+			// no previous sample
+			elapsedNanos[slot] = 0;
+		} else {
+			slot = s;
+			elapsedNanos[slot] = nowNanos - lastNanos[slot];
+		}
+		lastNanos[slot] = nowNanos;
+		seen[slot] = generation;
+		return slot;
+	}
+
+	/**
+	 * Gives the rate of a counter and records its value.
+	 * @param slot The slot of the series, from series().
+	 * @param counter The index of the counter.
+	 * @param value The cumulative value of the counter.
+	 * @return double. The increase per second since the previous sample, NaN if unknown.
+	 */
+	public double rate(int slot, int counter, long value) {
+		int i = slot * counters + counter;
+		long prev = values[i];
+		values[i] = value;
+		long elapsed = elapsedNanos[slot];
+		if (elapsed <= 0) {
+			return Double.NaN;
+		}
+		long delta = value - prev;
+		if (delta < 0) {
+			long wrapped = delta + MAX_32 + 1;
+			if (prev <= MAX_32 && wrapped <= MAX_32 / 2) {
+				wraps+=1;
+				delta = wrapped;
+			} else {
+				resets+=1;
+				return Double.NaN;
+			}
+		}
+		return delta * 1e9 / elapsed;
+	}
+
+	/* Ends a sample, the series it has not seen are evicted */
+	public void end() {
+		Iterator<Map.Entry<String, Integer>> it = slots.entrySet().iterator();
+		while (it.hasNext()) {
+			int slot = it.next().getValue();
+			if (seen[slot] != generation) {
+				it.remove();
+				if (freeCount == free.length) {
+					free = Arrays.copyOf(free, freeCount * 2);
+				}
+				free[freeCount++] = slot;
+			}
+		}
+	}
+
+	private int allocate() {
+		if (freeCount > 0) {
+			return free[--freeCount];
+		}
+		if (slots.size() == capacity) {
+			capacity = Math.max(8, capacity * 2);
+			lastNanos = Arrays.copyOf(lastNanos, capacity);
+			elapsedNanos = Arrays.copyOf(elapsedNanos, capacity);
+			seen = Arrays.copyOf(seen, capacity);
+			values = Arrays.copyOf(values, capacity * counters);
+		}
+		return slots.size();
+	}
+
+	public int size() {
+		return slots.size();
+	}
+
+	public long getWraps() {
+		return wraps;
+	}
+
+	public long getResets() {
+		return resets;
+	}
+}
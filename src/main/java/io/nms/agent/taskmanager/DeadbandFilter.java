@@ -0,0 +1,128 @@
+package io.nms.agent.taskmanager;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import io.nms.agent.message.ResultTable;
+import io.nms.agent.message.ResultTable.ColumnType;
+
+/*
+ * Report by exception: a result is published only if it differs from the last published one
+ * A numeric cell differs when it moves beyond the deadband, absolute or a percentage
+ * of the published value; a string cell, or the number of rows, when it changes.
+ * Rows are compared by position. A heartbeat publishes anyway every N periods.
+ * One filter per task, i.e., per schema. Not thread-safe.
+ */
+public class DeadbandFilter {
+	public final static int DEFAULT_HEARTBEAT = 10;
+
+	private final double deadband;
+	private final boolean percent;
+	private final int heartbeat;
+
+	// copy of the last published result
+	private ResultTable published = null;
+	private int[] identity = null;
+	private int skipped = 0;
+
+	/**
+	 * Creates a filter.
+	 * @param deadband The tolerated move, e.g., 1024 or 5 (%).
+	 * @param percent True if the deadband is a percentage of the published value.
+	 * @param heartbeat Publishes at least every heartbeat periods, never forced if <= 0.
+	 */
+	public DeadbandFilter(double deadband, boolean percent, int heartbeat) {
+		this.deadband = deadband;
+		this.percent = percent;
+		this.heartbeat = heartbeat;
+	}
+
+	/**
+	 * Parses a deadband parameter.
+	 * @param value An absolute value, e.g., "1024", or a percentage, e.g., "5%".
+	 * @param heartbeat The heartbeat parameter, in periods, default if empty.
+	 * @return DeadbandFilter. The filter.
+	 * @throws IllegalArgumentException If a value is not a positive number.
+	 */
+	public static DeadbandFilter parse(String value, String heartbeat) {
+		boolean percent = value.endsWith("%");
+		double deadband = Double.parseDouble(percent ? value.substring(0, value.length() - 1) : value);
+		int periods = heartbeat.isEmpty() ? DEFAULT_HEARTBEAT : Integer.parseInt(heartbeat);
+		if (!(deadband >= 0) || Double.isInfinite(deadband)) {
+			throw new IllegalArgumentException("invalid deadband: " + value);
+		}
+		return new DeadbandFilter(deadband, percent, periods);
+	}
+
+	/**
+	 * Decides if a result is published, and if so keeps it as the reference.
+	 * @param result The result of the period.
+	 * @return boolean. True if the result must be published.
+	 */
+	public boolean accept(ResultTable result) {
+		if (published != null && (heartbeat <= 0 || skipped + 1 < heartbeat) && !differs(result)) {
+			skipped+=1;
+			return false;
+		}
+		if (published == null) {
+			published = new ResultTable(result.getColumnNames(), types(result));
+			identity = new int[result.getColumnCount()];
+			for (int c = 0; c < identity.length; c++) {
+				identity[c] = c;
+			}
+		}
+		published.projectFrom(result, identity);
+		skipped = 0;
+		return true;
+	}
+
+	private boolean differs(ResultTable result) {
+		if (result.getRowCount() != published.getRowCount()) {
+			return true;
+		}
+		for (int c = 0; c < result.getColumnCount(); c++) {
+			for (int r = 0; r < result.getRowCount(); r++) {
+				switch (result.getColumnType(c)) {
+					case LONG:
+						if (moved(published.getLong(r, c), result.getLong(r, c))) {
+							return true;
+						}
+						break;
+					case DOUBLE:
+						if (moved(published.getDouble(r, c), result.getDouble(r, c))) {
+							return true;
+						}
+						break;
+					default:
+						if (!Objects.equals(result.getString(r, c), published.getString(r, c))) {
+							return true;
+						}
+				}
+			}
+		}
+		return false;
+	}
+
+	// exact for counters beyond the precision of doubles
+	private boolean moved(long from, long to) {
+		double limit = percent ? Math.abs((double) from) * deadband / 100 : deadband;
+		return Math.abs(to - from) > limit;
+	}
+
+	private boolean moved(double from, double to) {
+		if (Double.isNaN(from) || Double.isNaN(to)) {
+			return Double.isNaN(from) != Double.isNaN(to);
+		}
+		double limit = percent ? Math.abs(from) * deadband / 100 : deadband;
+		return Math.abs(to - from) > limit;
+	}
+
+	private static Map<String, ColumnType> types(ResultTable t) {
+		Map<String, ColumnType> types = new HashMap<String, ColumnType>();
+		for (int c = 0; c < t.getColumnCount(); c++) {
+			types.put(t.getColumnName(c), t.getColumnType(c));
+		}
+		return types;
+	}
+}
@@ -0,0 +1,271 @@
+package io.nms.agent.taskmanager;
+
+import java.util.Arrays;
+
+/*
+ * Mergeable summary of a series of values: count, min, max, mean, last and quantiles
+ * Quantiles come from logarithmic buckets (as in DDSketch): a value x > 0 falls in
+ * bucket ceil(log(x) / log(gamma)), gamma = (1 + a) / (1 - a), so a quantile is within
+ * a relative error a of the true value. Negative values have their own buckets,
+ * values close to 0 are counted apart. Sketches of the same accuracy merge by adding
+ * their buckets, e.g., short windows into a longer one.
+ * The number of buckets is bounded, the lowest ones are collapsed beyond it.
+ * NaN values are ignored. Not thread-safe.
+ */
+public class QuantileSketch {
+	public final static double DEFAULT_ACCURACY = 0.01;
+	public final static int MAX_BUCKETS = 2048;
+
+	// smaller values are counted as 0
+	private final static double MIN_VALUE = 1e-9;
+
+	private final double accuracy;
+	private final double gamma;
+	private final double logGamma;
+
+	private final Buckets positive = new Buckets();
+	private final Buckets negative = new Buckets();
+	private long zeros = 0;
+
+	private long count = 0;
+	private double min = Double.NaN;
+	private double max = Double.NaN;
+	private double sum = 0;
+	private double last = Double.NaN;
+
+	public QuantileSketch() {
+		this(DEFAULT_ACCURACY);
+	}
+
+	/**
+	 * Creates an empty sketch.
+	 * @param accuracy The relative error of the quantiles, in ]0, 1[.
+	 */
+	public QuantileSketch(double accuracy) {
+		if (!(accuracy > 0 && accuracy < 1)) {
+			throw new IllegalArgumentException("accuracy not in ]0, 1[: " + accuracy);
+		}
+		this.accuracy = accuracy;
+		this.gamma = (1 + accuracy) / (1 - accuracy);
+		this.logGamma = Math.log(gamma);
+	}
+
+	public void add(double value) {
+		if (Double.isNaN(value)) {
+			return;
+		}
+		if (value > MIN_VALUE) {
+			positive.add(index(value), 1);
+		} else if (value < -MIN_VALUE) {
+			negative.add(index(-value), 1);
+		} else {
+			zeros+=1;
+		}
+		if (count == 0) {
+			min = value;
+			max = value;
+		} else {
+			min = Math.min(min, value);
+			max = Math.max(max, value);
+		}
+		count+=1;
+		sum += value;
+		last = value;
+	}
+
+	/**
+	 * Adds the values of another sketch, taken after the values of this one.
+	 * @param other A sketch of the same accuracy.
+	 */
+	public void merge(QuantileSketch other) {
+		if (other.accuracy != accuracy) {
+			throw new IllegalArgumentException("accuracy mismatch: " + other.accuracy + " " + accuracy);
+		}
+		if (other.count == 0) {
+			return;
+		}
+		positive.merge(other.positive);
+		negative.merge(other.negative);
+		zeros += other.zeros;
+		min = (count == 0) ? other.min : Math.min(min, other.min);
+		max = (count == 0) ? other.max : Math.max(max, other.max);
+		count += other.count;
+		sum += other.sum;
+		last = other.last;
+	}
+
+	/**
+	 * Gives an approximate quantile.
+	 * @param q The quantile, in [0, 1], e.g., 0.99.
+	 * @return double. The value, NaN if the sketch is empty.
+	 */
+	public double quantile(double q) {
+		if (count == 0) {
+			return Double.NaN;
+		}
+		if (q <= 0) {
+			return min;
+		}
+		if (q >= 1) {
+			return max;
+		}
+		double rank = q * (count - 1);
+		long seen = 0;
+		double value = max;
+		// most negative first
+		int i = negative.find(rank, seen, true);
+		if (i != Buckets.NONE) {
+			value = -value(i);
+		} else {
+			seen += negative.total;
+			if (rank < seen + zeros) {
+				value = 0;
+			} else {
+				seen += zeros;
+				i = positive.find(rank, seen, false);
+				if (i != Buckets.NONE) {
+					value = value(i);
+				}
+			}
+		}
+		return Math.max(min, Math.min(max, value));
+	}
+
+	public void clear() {
+		positive.clear();
+		negative.clear();
+		zeros = 0;
+		count = 0;
+		min = Double.NaN;
+		max = Double.NaN;
+		sum = 0;
+		last = Double.NaN;
+	}
+
+	public long getCount() {
+		return count;
+	}
+	public double getMin() {
+		return min;
+	}
+	public double getMax() {
+		return max;
+	}
+	public double getMean() {
+		return (count > 0) ? sum / count : Double.NaN;
+	}
+	public double getLast() {
+		return last;
+	}
+	public double getAccuracy() {
+		return accuracy;
+	}
+
+	private int index(double value) {
+		return (int) Math.ceil(Math.log(value) / logGamma);
+	}
+
+	// the value of a bucket with the lowest relative error to its bounds
+	private double value(int index) {
+		return 2 * Math.pow(gamma, index) / (gamma + 1);
+	}
+
+	/*
+	 * Counts of contiguous bucket indexes, in an array grown as needed
+	 */
+	private static class Buckets {
+		final static int NONE = Integer.MIN_VALUE;
+
+		long[] counts = new long[0];
+		// index of counts[0]
+		int offset = 0;
+		// used indexes, lo > hi if empty
+		int lo = Integer.MAX_VALUE;
+		int hi = Integer.MIN_VALUE;
+		long total = 0;
+
+		void add(int index, long n) {
+			int newHi = Math.max(hi, index);
+			int floor = newHi - MAX_BUCKETS + 1;
+			if (index < floor) {
+				index = floor;
+			}
+			if (lo <= hi && lo < floor) {
+				collapse(floor);
+			}
+			if (counts.length == 0 || index < offset || index >= offset + counts.length) {
+				grow(index);
+			}
+			counts[index - offset] += n;
+			lo = Math.min(lo, index);
+			hi = Math.max(hi, index);
+			total += n;
+		}
+
+		// moves the counts of the buckets below floor into it
+		private void collapse(int floor) {
+			long n = 0;
+			for (int i = lo; i < Math.min(floor, hi + 1); i++) {
+				n += counts[i - offset];
+				counts[i - offset] = 0;
+			}
+			if (hi < floor) {
+				// all below, floor is outside the used buckets
+				lo = Integer.MAX_VALUE;
+				hi = Integer.MIN_VALUE;
+				grow(floor);
+				hi = floor;
+			}
+			lo = floor;
+			counts[floor - offset] += n;
+		}
+
+		private void grow(int index) {
+			int from = (lo <= hi) ? Math.min(lo, index) : index;
+			int to = (lo <= hi) ? Math.max(hi, index) : index;
+			int size = Math.max(64, Integer.highestOneBit(Math.max(1, to - from + 1)) * 2);
+			size = Math.min(size, MAX_BUCKETS * 2);
+			// slack on both sides
+			int newOffset = from - (size - (to - from + 1)) / 2;
+			long[] c = new long[size];
+			if (lo <= hi) {
+				System.arraycopy(counts, lo - offset, c, lo - newOffset, hi - lo + 1);
+			}
+			counts = c;
+			offset = newOffset;
+		}
+
+		void merge(Buckets other) {
+			for (int i = other.lo; i <= other.hi; i++) {
+				long n = other.counts[i - other.offset];
+				if (n > 0) {
+					add(i, n);
+				}
+			}
+		}
+
+		// the bucket holding a rank, counted from the highest index if descending
+		int find(double rank, long seen, boolean descending) {
+			if (lo > hi) {
+				return NONE;
+			}
+			for (int k = 0; k <= hi - lo; k++) {
+				int i = descending ? hi - k : lo + k;
+				seen += counts[i - offset];
+				if (rank < seen) {
+					return i;
+				}
+			}
+			return NONE;
+		}
+
+		void clear() {
+			if (lo <= hi) {
+				Arrays.fill(counts, lo - offset, hi - offset + 1, 0);
+			}
+			lo = Integer.MAX_VALUE;
+			hi = Integer.MIN_VALUE;
+			total = 0;
+		}
+	}
+}
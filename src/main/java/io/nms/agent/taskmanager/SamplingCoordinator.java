@@ -0,0 +1,271 @@
+package io.nms.agent.taskmanager;
+
+import java.lang.reflect.Constructor;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.nms.agent.message.Message;
+import io.nms.agent.message.ResultTable;
+import io.vertx.core.json.JsonObject;
+
+/*
+ * Shares one probe execution between the Specifications of a capability
+ * Tasks of the same class with the same parameters, whose columns come from the same
+ * source (e.g., /proc/diskstats, or the partitions of a disk), form a group.
+ * One sampler task per group measures all the columns of that source
+ * at the GCD of the requested periods, each subscribed task then receives
+ * the columns it requested, at its own period. Tasks mixing sources are not shared.
+ * The sampling period is at least minPeriodMs: a task whose period would not be a multiple
+ * of it (e.g., 1500 ms with a 2000 ms task and a 1000 ms floor) runs on its own.
+ * Reserved "publish." and "aggregate." parameters do not change the sampling, they are ignored here.
+ * Aggregating tasks are not shared: a sampler runs at the GCD of the periods, at least minPeriodMs,
+ * their windows would not receive one sample per aggregate period.
+ */
+class SamplingCoordinator {
+	private Logger LOG = LoggerFactory.getLogger(SamplingCoordinator.class);
+
+	public final static long DEFAULT_MIN_PERIOD_MS = 1000;
+
+	private final TaskManager manager;
+	private long minPeriodMs = DEFAULT_MIN_PERIOD_MS;
+
+	// groups by class and parameters, and by subscribed task id
+	private final Map<String, Group> groups = new HashMap<String, Group>();
+	private final Map<String, Group> bySubscriber = new HashMap<String, Group>();
+
+	// some stats
+	private final LongAdder samples = new LongAdder();
+	private final LongAdder deliveries = new LongAdder();
+
+	SamplingCoordinator(TaskManager manager) {
+		this.manager = manager;
+	}
+
+	void configure(long minPeriodMs) {
+		this.minPeriodMs = Math.max(1, minPeriodMs);
+	}
+
+	/* Subscribes a checked task, returns false if no sampler can be created for it */
+	synchronized boolean attach(AbstractAgentTask task, long initialDelay, long period) {
+		if (task.results == null || task.isAggregating()) {
+			return false;
+		}
+		// samplers measure the columns of one source only
+		List<String> columns = task.samplingColumns();
+		if (columns == null) {
+			return false;
+		}
+		String key = task.samplingKey() + "|" + String.join(",", columns);
+		Group g = groups.get(key);
+		// each subscriber is served at its own period, or not shared
+		if ((g == null) ? (period < minPeriodMs) : !g.serves(period)) {
+			return false;
+		}
+		if (g == null) {
+			AbstractAgentTask sampler = createSampler(task, columns);
+			if (sampler == null) {
+				return false;
+			}
+			g = new Group(sampler);
+			sampler.registerTaskListener(g);
+			groups.put(key, g);
+		}
+		g.add(new Subscriber(task, g.sampler.results, initialDelay, period));
+		bySubscriber.put(task.getTaskId(), g);
+		g.reschedule();
+		return true;
+	}
+
+	/* Unsubscribes a task, the sampler stops with the last subscriber */
+	synchronized boolean detach(String taskId) {
+		Group g = bySubscriber.remove(taskId);
+		if (g == null) {
+			return false;
+		}
+		if (g.remove(taskId)) {
+			g.stop();
+			groups.values().remove(g);
+		} else {
+			g.reschedule();
+		}
+		return true;
+	}
+
+	synchronized int getSubscribersNbr() {
+		return bySubscriber.size();
+	}
+
+	synchronized JsonObject stats() {
+		return new JsonObject()
+			.put("groups", groups.size())
+			.put("subscribers", bySubscriber.size())
+			.put("samples", samples.sum())
+			.put("deliveries", deliveries.sum());
+	}
+
+	// same class as the task, requesting all the columns of the source
+	private AbstractAgentTask createSampler(AbstractAgentTask task, List<String> columns) {
+		Message spec = new Message();
+		spec.setName(task.name);
+		spec.setParameters(task.samplingParameters());
+		spec.setResults(columns);
+		try {
+			Constructor<?> ctor = task.getClass().getConstructor(Message.class, JsonObject.class);
+			AbstractAgentTask sampler = (AbstractAgentTask) ctor.newInstance(new Object[] { spec, task.context });
+			sampler.initSampler();
+			sampler.setTaskId("sampler-" + task.name + "-" + Integer.toHexString(System.identityHashCode(sampler)));
+			return sampler;
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			LOG.error("Unable to create sampler for " + task.name, e);
+			return null;
+		}
+	}
+
+	private static long gcd(long a, long b) {
+		while (b != 0) {
+			long t = a % b;
+			a = b;
+			b = t;
+		}
+		return a;
+	}
+
+	/*
+	 * A subscribed task and the position of its columns in the sample
+	 */
+	private static class Subscriber {
+		final AbstractAgentTask task;
+		final int[] columns;
+		final long periodNanos;
+		long nextDueNanos;
+
+		Subscriber(AbstractAgentTask task, ResultTable sample, long initialDelay, long period) {
+			this.task = task;
+			ResultTable own = task.results;
+			this.columns = new int[own.getColumnCount()];
+			for (int c = 0; c < columns.length; c++) {
+				columns[c] = sample.indexOf(own.getColumnName(c));
+			}
+			this.periodNanos = TimeUnit.MILLISECONDS.toNanos(period);
+			this.nextDueNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(initialDelay);
+		}
+	}
+
+	/*
+	 * Sampler and subscribers of one class and parameters
+	 */
+	private class Group implements AgentTaskListener {
+		final AbstractAgentTask sampler;
+		final List<Subscriber> subscribers = new ArrayList<Subscriber>();
+		long periodMs = 0;
+		Runnable cancelSampler = null;
+
+		Group(AbstractAgentTask sampler) {
+			this.sampler = sampler;
+		}
+
+		synchronized void add(Subscriber s) {
+			subscribers.add(s);
+		}
+
+		// returns true if it was the last subscriber
+		synchronized boolean remove(String taskId) {
+			subscribers.removeIf(s -> s.task.getTaskId().equals(taskId));
+			return subscribers.isEmpty();
+		}
+
+		// the GCD of the periods, at least minPeriodMs
+		private long samplingPeriod(long period) {
+			long p = period;
+			for (Subscriber s : subscribers) {
+				p = gcd(p, TimeUnit.NANOSECONDS.toMillis(s.periodNanos));
+			}
+			return Math.max(minPeriodMs, p);
+		}
+
+		// true if a new period keeps all periods multiples of the sampling period
+		synchronized boolean serves(long period) {
+			long p = samplingPeriod(period);
+			if (period % p != 0) {
+				return false;
+			}
+			for (Subscriber s : subscribers) {
+				if (TimeUnit.NANOSECONDS.toMillis(s.periodNanos) % p != 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		// samples at the GCD of the periods
+		synchronized void reschedule() {
+			long p = samplingPeriod(0);
+			if (p == periodMs) {
+				return;
+			}
+			stop();
+			periodMs = p;
+			cancelSampler = manager.schedule(sampler, 0, periodMs);
+			LOG.info("Sampling " + sampler.name + " every " + periodMs + " ms for "
+					+ subscribers.size() + " subscriber(s).");
+		}
+
+		synchronized void stop() {
+			if (cancelSampler != null) {
+				cancelSampler.run();
+				cancelSampler = null;
+			}
+		}
+
+		@Override
+		public void onResult(String samplerId, short resultCode, Timestamp ts) {
+			samples.increment();
+			long now = System.nanoTime();
+			Date date = new Date();
+			List<Subscriber> due = new ArrayList<Subscriber>();
+			List<Subscriber> finished = new ArrayList<Subscriber>();
+			synchronized (this) {
+				long margin = TimeUnit.MILLISECONDS.toNanos(periodMs) / 2;
+				for (Subscriber s : subscribers) {
+					Date stop = s.task.getTaskStop();
+					if (stop != null && stop.before(date)) {
+						finished.add(s);
+					} else if (now >= s.nextDueNanos - margin) {
+						s.nextDueNanos += s.periodNanos;
+						if (s.nextDueNanos <= now) {
+							s.nextDueNanos = now + s.periodNanos;
+						}
+						due.add(s);
+					}
+				}
+			}
+			// listeners may detach tasks, called outside the locks
+			for (Subscriber s : due) {
+				s.task.results.projectFrom(sampler.results, s.columns);
+				if (s.task.tListener != null && s.task.deliver(resultCode, ts)) {
+					deliveries.increment();
+				}
+			}
+			for (Subscriber s : finished) {
+				LOG.info("Task terminated.");
+				if (s.task.tListener != null) {
+					s.task.tListener.onFinished(s.task.getTaskId());
+				}
+			}
+		}
+
+		@Override
+		public void onFinished(String samplerId) {
+			// samplers run until their last subscriber leaves
+		}
+	}
+}
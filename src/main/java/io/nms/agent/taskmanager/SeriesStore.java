@@ -0,0 +1,324 @@
+package io.nms.agent.taskmanager;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.nms.agent.message.ResultTable;
+import io.nms.agent.message.ResultTable.ColumnType;
+import io.vertx.core.json.JsonObject;
+
+/*
+ * Recent samples of the tasks, to answer Specifications collecting a past window
+ * Samples are stored by schema: the task class, its sampling parameters and its columns.
+ * Each series of a schema (rows told apart by their string columns, e.g., an interface)
+ * has a ring buffer off the heap holding its last samples: the time and the numeric values.
+ * A ring holds the retention at the sampling period, maxSamples at most; series without
+ * samples for the retention are removed. New series are dropped beyond maxBytes or maxSeries.
+ * Configuration ("history" in "scheduler"):
+ * - enabled: records the samples of all tasks
+ * - retentionMs: how long samples are kept
+ * - maxSamples: samples of a series at most
+ * - maxSeries: series of a schema at most
+ * - maxBytes: size of all the rings
+ */
+public class SeriesStore {
+	private static SeriesStore instance = new SeriesStore();
+
+	// reserved column of past Results, the time of the sample in ms since epoch
+	public final static String TIME_COLUMN = "time.ms";
+	// position of the TIME_COLUMN in a query
+	private final static int TIME = -1;
+
+	public final static long DEFAULT_RETENTION_MS = 3600000;
+	public final static int DEFAULT_MAX_SAMPLES = 3600;
+	public final static int DEFAULT_MAX_SERIES = 256;
+	public final static long DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+
+	private volatile boolean enabled = true;
+	private long retentionMs = DEFAULT_RETENTION_MS;
+	private int maxSamples = DEFAULT_MAX_SAMPLES;
+	private int maxSeries = DEFAULT_MAX_SERIES;
+	private long maxBytes = DEFAULT_MAX_BYTES;
+
+	// schemas by sampling key, then by columns
+	private final Map<String, Map<String, Schema>> schemas = new ConcurrentHashMap<String, Map<String, Schema>>();
+	private final AtomicLong bytes = new AtomicLong(0);
+
+	// some stats
+	private final LongAdder records = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder queries = new LongAdder();
+
+	private SeriesStore() {}
+
+	public static SeriesStore getInstance() {
+		return instance;
+	}
+
+	public synchronized void configure(JsonObject config) {
+		if (config == null) {
+			return;
+		}
+		enabled = config.getBoolean("enabled", true);
+		retentionMs = Math.max(1, config.getLong("retentionMs", DEFAULT_RETENTION_MS));
+		maxSamples = Math.max(1, config.getInteger("maxSamples", DEFAULT_MAX_SAMPLES));
+		maxSeries = Math.max(1, config.getInteger("maxSeries", DEFAULT_MAX_SERIES));
+		maxBytes = Math.max(0, config.getLong("maxBytes", DEFAULT_MAX_BYTES));
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Records the rows of a sample, at the current time.
+	 * @param key The sampling key of the task.
+	 * @param sample The sample.
+	 * @param periodMs The sampling period, to size the rings.
+	 */
+	public void record(String key, ResultTable sample, long periodMs) {
+		if (!enabled || sample.getRowCount() == 0) {
+			return;
+		}
+		Map<String, Schema> byColumns = schemas.computeIfAbsent(key, k -> new ConcurrentHashMap<String, Schema>());
+		String columns = String.join(",", sample.getColumnNames());
+		Schema schema = byColumns.get(columns);
+		if (schema == null) {
+			int capacity = (int) Math.max(1, Math.min(maxSamples, retentionMs / Math.max(1, periodMs) + 1));
+			schema = byColumns.computeIfAbsent(columns, c -> new Schema(sample, capacity));
+		}
+		schema.record(sample, System.currentTimeMillis());
+	}
+
+	/**
+	 * Gives the samples of a past window.
+	 * @param key The sampling key of the task.
+	 * @param fromMs The start of the window, in ms since epoch.
+	 * @param toMs The end of the window.
+	 * @param out Receives one row per sample, by series then time; its columns are
+	 * the TIME_COLUMN and columns of the task.
+	 * @return int. The number of rows, -1 if no schema has the columns of out.
+	 */
+	public int query(String key, long fromMs, long toMs, ResultTable out) {
+		queries.increment();
+		Map<String, Schema> byColumns = schemas.get(key);
+		if (byColumns == null) {
+			return -1;
+		}
+		for (Schema schema : byColumns.values()) {
+			int[] columns = schema.map(out);
+			if (columns != null) {
+				return schema.query(Math.max(fromMs, System.currentTimeMillis() - retentionMs), toMs, out, columns);
+			}
+		}
+		return -1;
+	}
+
+	public JsonObject stats() {
+		int series = 0;
+		for (Map<String, Schema> byColumns : schemas.values()) {
+			for (Schema s : byColumns.values()) {
+				series += s.size();
+			}
+		}
+		return new JsonObject()
+			.put("enabled", enabled)
+			.put("series", series)
+			.put("bytes", bytes.get())
+			.put("records", records.sum())
+			.put("dropped", dropped.sum())
+			.put("queries", queries.sum());
+	}
+
+	/*
+	 * Series of one task class, sampling parameters and columns
+	 */
+	private class Schema {
+		final String[] names;
+		final ColumnType[] types;
+		// string columns are the key of a series, the others are in the rings
+		final int[] keyColumns;
+		final int[] valueColumns;
+		// position of a column in the key or in the record values
+		final int[] slots;
+		final int capacity;
+		final int recordBytes;
+		final Map<String, Ring> series = new LinkedHashMap<String, Ring>();
+		final StringBuilder key = new StringBuilder();
+
+		Schema(ResultTable sample, int capacity) {
+			int n = sample.getColumnCount();
+			names = new String[n];
+			types = new ColumnType[n];
+			List<Integer> keys = new ArrayList<Integer>();
+			List<Integer> values = new ArrayList<Integer>();
+			for (int c = 0; c < n; c++) {
+				names[c] = sample.getColumnName(c);
+				types[c] = sample.getColumnType(c);
+				(types[c] == ColumnType.STRING ? keys : values).add(c);
+			}
+			this.keyColumns = keys.stream().mapToInt(Integer::intValue).toArray();
+			this.valueColumns = values.stream().mapToInt(Integer::intValue).toArray();
+			this.slots = new int[n];
+			for (int i = 0; i < keyColumns.length; i++) {
+				slots[keyColumns[i]] = i;
+			}
+			for (int i = 0; i < valueColumns.length; i++) {
+				slots[valueColumns[i]] = i;
+			}
+			this.capacity = capacity;
+			this.recordBytes = 8 * (1 + valueColumns.length);
+		}
+
+		synchronized int size() {
+			return series.size();
+		}
+
+		synchronized void record(ResultTable sample, long nowMs) {
+			for (int r = 0; r < sample.getRowCount(); r++) {
+				Ring ring = ring(sample, r);
+				if (ring == null) {
+					dropped.increment();
+					continue;
+				}
+				int pos = ring.next() * recordBytes;
+				ring.buf.putLong(pos, nowMs);
+				for (int v = 0; v < valueColumns.length; v++) {
+					int c = valueColumns[v];
+					pos += 8;
+					if (types[c] == ColumnType.LONG) {
+						ring.buf.putLong(pos, sample.getLong(r, c));
+					} else {
+						ring.buf.putDouble(pos, sample.getDouble(r, c));
+					}
+				}
+				ring.lastMs = nowMs;
+				records.increment();
+			}
+			// series gone for the retention
+			Iterator<Ring> it = series.values().iterator();
+			while (it.hasNext()) {
+				Ring ring = it.next();
+				if (ring.lastMs < nowMs - retentionMs) {
+					it.remove();
+					bytes.addAndGet(-ring.buf.capacity());
+				}
+			}
+		}
+
+		private Ring ring(ResultTable sample, int row) {
+			key.setLength(0);
+			for (int c : keyColumns) {
+				key.append(sample.getString(row, c)).append('\0');
+			}
+			String k = key.toString();
+			Ring ring = series.get(k);
+			if (ring == null) {
+				int size = capacity * recordBytes;
+				if (series.size() >= maxSeries) {
+					return null;
+				}
+				if (bytes.addAndGet(size) > maxBytes) {
+					bytes.addAndGet(-size);
+					return null;
+				}
+				String[] keys = new String[keyColumns.length];
+				for (int i = 0; i < keys.length; i++) {
+					keys[i] = sample.getString(row, keyColumns[i]);
+				}
+				ring = new Ring(keys, ByteBuffer.allocateDirect(size), capacity);
+				series.put(k, ring);
+			}
+			return ring;
+		}
+
+		// for each column of out, its column here, TIME for the time; null if one is missing
+		int[] map(ResultTable out) {
+			int[] columns = new int[out.getColumnCount()];
+			for (int o = 0; o < columns.length; o++) {
+				String name = out.getColumnName(o);
+				if (name.equals(TIME_COLUMN)) {
+					columns[o] = TIME;
+					continue;
+				}
+				columns[o] = Arrays.asList(names).indexOf(name);
+				if (columns[o] < 0) {
+					return null;
+				}
+			}
+			return columns;
+		}
+
+		synchronized int query(long fromMs, long toMs, ResultTable out, int[] columns) {
+			int rows = 0;
+			for (Ring ring : series.values()) {
+				for (int i = 0; i < ring.count; i++) {
+					int pos = ring.index(i) * recordBytes;
+					long timeMs = ring.buf.getLong(pos);
+					if (timeMs < fromMs) {
+						continue;
+					}
+					if (timeMs > toMs) {
+						break;
+					}
+					int row = out.addRow();
+					for (int o = 0; o < columns.length; o++) {
+						int c = columns[o];
+						if (c == TIME) {
+							out.setLong(row, o, timeMs);
+						} else if (types[c] == ColumnType.STRING) {
+							out.setString(row, o, ring.keys[slots[c]]);
+						} else if (types[c] == ColumnType.LONG) {
+							out.setLong(row, o, ring.buf.getLong(pos + 8 * (1 + slots[c])));
+						} else {
+							out.setDouble(row, o, ring.buf.getDouble(pos + 8 * (1 + slots[c])));
+						}
+					}
+					rows+=1;
+				}
+			}
+			return rows;
+		}
+	}
+
+	/*
+	 * Last samples of a series, oldest first from head - count
+	 */
+	private static class Ring {
+		final String[] keys;
+		final ByteBuffer buf;
+		final int capacity;
+		int head = 0;
+		int count = 0;
+		long lastMs = 0;
+
+		Ring(String[] keys, ByteBuffer buf, int capacity) {
+			this.keys = keys;
+			this.buf = buf;
+			this.capacity = capacity;
+		}
+
+		// slot of a new record, overwrites the oldest when full
+		int next() {
+			int slot = head;
+			head = (head + 1) % capacity;
+			if (count < capacity) {
+				count+=1;
+			}
+			return slot;
+		}
+
+		// slot of the i-th record, oldest first
+		int index(int i) {
+			return (head - count + i + capacity) % capacity;
+		}
+	}
+}
@@ -0,0 +1,108 @@
+package io.nms.agent.taskmanager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import io.nms.agent.message.ResultTable;
+import io.nms.agent.message.ResultTable.ColumnType;
+
+/*
+ * Sends the static columns of a result (e.g., a serial number) only when needed
+ * The full result is published first, when forced (e.g., a new subscription)
+ * and when a static cell changes; the others carry the dynamic columns only.
+ * Static cells are compared by row position with the last full result.
+ * One split per task. Not thread-safe, except force().
+ */
+public class StaticColumnSplit {
+	private final int[] dynamicColumns;
+	private final int[] staticColumns;
+	private final ResultTable dynamic;
+	private final ResultTable statics;
+	private boolean sent = false;
+	private volatile boolean forced = false;
+
+	/**
+	 * Creates the split of the results of a task.
+	 * @param full The table of the results.
+	 * @param names The names of the static columns of the capability.
+	 */
+	public StaticColumnSplit(ResultTable full, Set<String> names) {
+		List<Integer> dyn = new ArrayList<Integer>();
+		List<Integer> stat = new ArrayList<Integer>();
+		for (int c = 0; c < full.getColumnCount(); c++) {
+			(names.contains(full.getColumnName(c)) ? stat : dyn).add(c);
+		}
+		this.dynamicColumns = dyn.stream().mapToInt(Integer::intValue).toArray();
+		this.staticColumns = stat.stream().mapToInt(Integer::intValue).toArray();
+		this.dynamic = subTable(full, dynamicColumns);
+		this.statics = subTable(full, staticColumns);
+	}
+
+	private static ResultTable subTable(ResultTable full, int[] columns) {
+		List<String> names = new ArrayList<String>();
+		Map<String, ColumnType> types = new HashMap<String, ColumnType>();
+		for (int c : columns) {
+			names.add(full.getColumnName(c));
+			types.put(full.getColumnName(c), full.getColumnType(c));
+		}
+		return new ResultTable(names, types);
+	}
+
+	/* True if some requested columns are static */
+	public boolean isActive() {
+		return staticColumns.length > 0;
+	}
+
+	/* The next result will be the full one */
+	public void force() {
+		forced = true;
+	}
+
+	/**
+	 * Gives the table to publish.
+	 * @param full The result of the period.
+	 * @return ResultTable. full, or its dynamic columns.
+	 */
+	public ResultTable split(ResultTable full) {
+		if (!sent || forced || changed(full)) {
+			forced = false;
+			sent = true;
+			statics.projectFrom(full, staticColumns);
+			return full;
+		}
+		dynamic.projectFrom(full, dynamicColumns);
+		return dynamic;
+	}
+
+	private boolean changed(ResultTable full) {
+		if (full.getRowCount() != statics.getRowCount()) {
+			return true;
+		}
+		for (int s = 0; s < staticColumns.length; s++) {
+			int c = staticColumns[s];
+			for (int r = 0; r < full.getRowCount(); r++) {
+				switch (full.getColumnType(c)) {
+					case LONG:
+						if (full.getLong(r, c) != statics.getLong(r, s)) {
+							return true;
+						}
+						break;
+					case DOUBLE:
+						if (Double.compare(full.getDouble(r, c), statics.getDouble(r, s)) != 0) {
+							return true;
+						}
+						break;
+					default:
+						if (!Objects.equals(full.getString(r, c), statics.getString(r, s))) {
+							return true;
+						}
+				}
+			}
+		}
+		return false;
+	}
+}
@@ -1,68 +1,189 @@
 package io.nms.agent.taskmanager;
 
-import java.util.HashMap;
+import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 import io.vertx.core.Promise;
+import io.vertx.core.json.JsonObject;
 
+/*
+ * Schedules the tasks of all modules
+ * a timer wheel triggers the runs at a fixed rate,
+ * tasks are executed on the bulkhead of their capability class
+ * Configuration ("scheduler"):
+ * - tickMs: timer wheel resolution
+ * - threads, queue: default bulkhead size
+ * - bulkheads: {"<task class>": {"threads": n, "queue": n}} per class sizes
+ * - sampleOnce: share one execution between the tasks of a capability (see SamplingCoordinator)
+ * - minSamplePeriodMs: lower bound of the shared sampling period
+ * - commands: {"maxConcurrent": n, "timeoutMs": n} external commands (see CommandRunner)
+ * - history: {"enabled": b, "retentionMs": n, ...} samples kept for past collections (see SeriesStore)
+ */
 public class TaskManager {
 	private static TaskManager instance = new TaskManager();
-	
+
 	// stores running tasks
-	private static HashMap<String, java.util.concurrent.Future<?>> runningTasks 
-				= new HashMap<String, java.util.concurrent.Future<?>>(); 
-	
-	private static ScheduledExecutorService scheduler 
-				= Executors.newScheduledThreadPool(1);
-	
-	private static int totalTasksNbr = 0;
-	
+	private final Map<String, ScheduledTask> runningTasks
+				= new ConcurrentHashMap<String, ScheduledTask>();
+
+	// one per capability class
+	private final Map<String, Bulkhead> bulkheads = new ConcurrentHashMap<String, Bulkhead>();
+
+	private volatile TimerWheel wheel = null;
+	private JsonObject config = new JsonObject();
+	private long tickMs = TimerWheel.DEFAULT_TICK_MS;
+
+	private final LongAdder totalTasksNbr = new LongAdder();
+
+	// shares probe executions, tasks it runs are not in runningTasks
+	private final SamplingCoordinator sampling = new SamplingCoordinator(this);
+	private boolean sampleOnce = true;
+
 	private TaskManager() {}
-  
+
 	public static TaskManager getInstance() {
-		return instance; 
+		return instance;
 	}
-	
+
+	// applies the configuration, ignored once tasks were submitted
+	public synchronized void configure(JsonObject config) {
+		if (wheel == null && config != null) {
+			this.config = config;
+			this.tickMs = Math.max(1, config.getLong("tickMs", TimerWheel.DEFAULT_TICK_MS));
+			this.sampleOnce = config.getBoolean("sampleOnce", true);
+			sampling.configure(config.getLong("minSamplePeriodMs", SamplingCoordinator.DEFAULT_MIN_PERIOD_MS));
+			CommandRunner.getInstance().configure(config.getJsonObject("commands"));
+			SeriesStore.getInstance().configure(config.getJsonObject("history"));
+		}
+	}
+
+	private synchronized TimerWheel wheel() {
+		if (wheel == null) {
+			wheel = new TimerWheel(tickMs, "task-scheduler");
+		}
+		return wheel;
+	}
+
+	private Bulkhead bulkhead(Class<?> clazz) {
+		return bulkheads.computeIfAbsent(clazz.getName(), className -> {
+			JsonObject c = config.getJsonObject("bulkheads", new JsonObject())
+					.getJsonObject(className, new JsonObject());
+			int threads = c.getInteger("threads", config.getInteger("threads", Bulkhead.DEFAULT_THREADS));
+			int queue = c.getInteger("queue", config.getInteger("queue", Bulkhead.DEFAULT_QUEUE));
+			return new Bulkhead(clazz.getSimpleName(), Math.max(1, threads), queue);
+		});
+	}
+
 	// returns always true, more features later
 	public boolean submit(AbstractAgentTask task, long initialDelay, long period) {
-		java.util.concurrent.Future<?> f = 
-			scheduler.scheduleWithFixedDelay(task, initialDelay, period, TimeUnit.MILLISECONDS);
-		runningTasks.put(task.getTaskId(), f);
-		totalTasksNbr+=1;
+		totalTasksNbr.increment();
+		if (sampleOnce && sampling.attach(task, initialDelay, period)) {
+			return true;
+		}
+		ScheduledTask st = new ScheduledTask(task, bulkhead(task.getClass()));
+		st.trigger = wheel().schedule(initialDelay, period, st::dispatch);
+		runningTasks.put(task.getTaskId(), st);
 		return true;
 	}
-	
+
+	// schedules a task on its own, returns the action canceling it
+	Runnable schedule(AbstractAgentTask task, long initialDelay, long period) {
+		ScheduledTask st = new ScheduledTask(task, bulkhead(task.getClass()));
+		st.trigger = wheel().schedule(initialDelay, period, st::dispatch);
+		return st::cancel;
+	}
+
 	// returns true if found, false otherwise
 	public boolean cancel(String taskId) {
-		java.util.concurrent.Future<?> taskRef = runningTasks.get(taskId);
+		ScheduledTask taskRef = runningTasks.remove(taskId);
 		if (taskRef != null) {
-			taskRef.cancel(true);
-			runningTasks.remove(taskId);
+			taskRef.cancel();
 			return true;
 		}
-		return false;
+		return sampling.detach(taskId);
 	}
-	
+
 	// cancels a list of tasks
 	public void cancel(Set<String> taskIdList, Promise<Void> future) {
 		for(String taskId : taskIdList){
-			java.util.concurrent.Future<?> taskRef = runningTasks.get(taskId);
-			if (taskRef != null) {
-				taskRef.cancel(true);
-				runningTasks.remove(taskId);
-			}
+			cancel(taskId);
 		}
 		future.complete();
 	}
-	
+
+	// resolution of the timer wheel, the shortest period it can run
+	public long getTickMs() {
+		return tickMs;
+	}
+
 	public int getTotalTasksNbr() {
-		return totalTasksNbr;
+		return totalTasksNbr.intValue();
 	}
-	
+
 	public int getRunningTasksNbr() {
-		return runningTasks.size();
+		return runningTasks.size() + sampling.getSubscribersNbr();
+	}
+
+	public JsonObject stats() {
+		JsonObject pools = new JsonObject();
+		for (Bulkhead b : bulkheads.values()) {
+			pools.put(b.getName(), b.stats());
+		}
+		TimerWheel w = wheel;
+		return new JsonObject()
+			.put("wheel", (w != null) ? w.stats() : new JsonObject())
+			.put("runningTasks", getRunningTasksNbr())
+			.put("totalTasks", getTotalTasksNbr())
+			.put("bulkheads", pools)
+			.put("sampling", sampling.stats())
+			.put("commands", CommandRunner.getInstance().stats())
+			.put("history", SeriesStore.getInstance().stats());
+	}
+
+	/*
+	 * A submitted task, triggered by the timer wheel and run on its bulkhead.
+	 * A trigger is skipped while the previous run is queued or running
+	 */
+	private static class ScheduledTask {
+		final AbstractAgentTask task;
+		final Bulkhead bulkhead;
+		final AtomicBoolean pending = new AtomicBoolean(false);
+		volatile TimerWheel.Timeout trigger = null;
+		volatile java.util.concurrent.Future<?> run = null;
+
+		ScheduledTask(AbstractAgentTask task, Bulkhead bulkhead) {
+			this.task = task;
+			this.bulkhead = bulkhead;
+		}
+
+		void dispatch(long dueNanos) {
+			if (!pending.compareAndSet(false, true)) {
+				bulkhead.skip();
+				return;
+			}
+			run = bulkhead.execute(() -> {
+				try {
+					task.run();
+				} finally {
+					pending.set(false);
+				}
+			}, dueNanos);
+			if (run == null) {
+				pending.set(false);
+			}
+		}
+
+		void cancel() {
+			if (trigger != null) {
+				trigger.cancel();
+			}
+			java.util.concurrent.Future<?> r = run;
+			if (r != null) {
+				r.cancel(true);
+			}
+		}
 	}
 }
@@ -0,0 +1,154 @@
+package io.nms.agent.taskmanager;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.nms.agent.message.Recipient;
+
+/*
+ * Tasks being executed, keyed by schema
+ * Reads are lock-free, each entry counts the Specifications referencing it
+ * per subscribed endpoint: the task is kept until the last one is interrupted,
+ * and its Results are published once to each subscribed endpoint,
+ * with the token of the last Specification of that endpoint.
+ */
+public class TaskRegistry {
+
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+	/* Gives the task of a schema, null if none */
+	public AbstractAgentTask get(String schema) {
+		Entry e = entries.get(schema);
+		return (e != null) ? e.task : null;
+	}
+
+	public boolean contains(String schema) {
+		return entries.containsKey(schema);
+	}
+
+	/**
+	 * References the task of a schema for an endpoint, registers the candidate if there is none.
+	 * @param schema The schema of the Specification.
+	 * @param endpoint The endpoint the Results are published to.
+	 * @param token The token of the Specification, sent back in the Results.
+	 * @param candidate The task to register if the schema is new.
+	 * @return AbstractAgentTask. The registered task, the candidate if it was added.
+	 */
+	public AbstractAgentTask acquire(String schema, String endpoint, String token, AbstractAgentTask candidate) {
+		return entries.compute(schema, (k, e) -> {
+			if (e == null) {
+				e = new Entry(candidate);
+			}
+			e.subscribe(endpoint, token);
+			return e;
+		}).task;
+	}
+
+	/**
+	 * Releases one reference of an endpoint to the task of a schema.
+	 * @param schema The schema of the Interrupt.
+	 * @param endpoint The endpoint of the Interrupt.
+	 * @return AbstractAgentTask. The task if it was the last reference and is removed, null otherwise.
+	 */
+	public AbstractAgentTask release(String schema, String endpoint) {
+		final AbstractAgentTask[] removed = { null };
+		entries.computeIfPresent(schema, (k, e) -> {
+			e.unsubscribe(endpoint);
+			if (e.refs <= 0) {
+				removed[0] = e.task;
+				return null;
+			}
+			return e;
+		});
+		return removed[0];
+	}
+
+	/* Gives the endpoints subscribed to the task of a schema, empty if none */
+	public List<String> endpoints(String schema) {
+		Entry e = entries.get(schema);
+		return (e != null) ? e.endpoints : Collections.<String>emptyList();
+	}
+
+	/* Gives the subscribers of the task of a schema, one per endpoint, empty if none */
+	public List<Recipient> recipients(String schema) {
+		Entry e = entries.get(schema);
+		return (e != null) ? e.recipients : Collections.<Recipient>emptyList();
+	}
+
+	/* Removes the task whatever its references, e.g., when it terminates */
+	public AbstractAgentTask remove(String schema) {
+		Entry e = entries.remove(schema);
+		return (e != null) ? e.task : null;
+	}
+
+	/* Gives the number of Specifications referencing a task, 0 if none */
+	public int references(String schema) {
+		Entry e = entries.get(schema);
+		return (e != null) ? e.refs : 0;
+	}
+
+	public Set<String> schemas() {
+		return entries.keySet();
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	public void clear() {
+		entries.clear();
+	}
+
+	// only changed within compute, under the bin lock of its key
+	private static class Entry {
+		final AbstractAgentTask task;
+		final Map<String, Integer> subscriptions = new LinkedHashMap<String, Integer>();
+		final Map<String, String> tokens = new HashMap<String, String>();
+		volatile int refs = 0;
+		// copies for lock-free reads
+		volatile List<String> endpoints = Collections.<String>emptyList();
+		volatile List<Recipient> recipients = Collections.<Recipient>emptyList();
+
+		Entry(AbstractAgentTask task) {
+			this.task = task;
+		}
+
+		void subscribe(String endpoint, String token) {
+			subscriptions.merge(endpoint, 1, Integer::sum);
+			tokens.put(endpoint, token);
+			refs+=1;
+			publish();
+		}
+
+		// unknown endpoints are ignored
+		void unsubscribe(String endpoint) {
+			Integer n = subscriptions.get(endpoint);
+			if (n == null) {
+				return;
+			}
+			if (n <= 1) {
+				subscriptions.remove(endpoint);
+				tokens.remove(endpoint);
+			} else {
+				subscriptions.put(endpoint, n - 1);
+			}
+			refs-=1;
+			publish();
+		}
+
+		private void publish() {
+			List<Recipient> r = new ArrayList<Recipient>();
+			for (String endpoint : subscriptions.keySet()) {
+				r.add(new Recipient(endpoint, tokens.get(endpoint)));
+			}
+			recipients = Collections.unmodifiableList(r);
+			endpoints = Collections.unmodifiableList(new ArrayList<String>(subscriptions.keySet()));
+		}
+	}
+}
@@ -0,0 +1,200 @@
+package io.nms.agent.taskmanager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.vertx.core.json.JsonObject;
+
+/*
+ * Hierarchical timer wheel for periodic tasks
+ * LEVELS wheels of SLOTS slots each, a slot of level n spans SLOTS^n ticks.
+ * Timers are inserted in O(1) and cascade to lower levels as time advances,
+ * all timers due in the same tick are fired in one pass.
+ * Periodic timers are fixed-rate: the next deadline is the previous one plus the period,
+ * so the run time of a task never stretches its period.
+ * A single thread owns the wheels, other threads hand over new timers through a queue.
+ */
+public class TimerWheel {
+	private Logger LOG = LoggerFactory.getLogger(TimerWheel.class);
+
+	public final static long DEFAULT_TICK_MS = 10;
+
+	private final static int LEVELS = 4;
+	private final static int SLOT_BITS = 8;
+	private final static int SLOTS = 1 << SLOT_BITS;
+	private final static int MASK = SLOTS - 1;
+	private final static long MAX_TICKS = 1L << (SLOT_BITS * LEVELS);
+
+	private final long tickMs;
+	private final long startNanos;
+	private final Thread worker;
+
+	// owned by the worker thread
+	@SuppressWarnings("unchecked")
+	private final List<Timeout>[][] wheels = (List<Timeout>[][]) new List<?>[LEVELS][SLOTS];
+	private long currentTick = 0;
+	private boolean expiring = false;
+
+	// new timers, from any thread
+	private final Queue<Timeout> added = new ConcurrentLinkedQueue<Timeout>();
+	private volatile boolean stopped = false;
+
+	// some stats
+	private final AtomicInteger timers = new AtomicInteger(0);
+	private volatile long fired = 0;
+	private volatile long maxTickLagMs = 0;
+
+	public TimerWheel(long tickMs, String name) {
+		this.tickMs = Math.max(1, tickMs);
+		for (int l = 0; l < LEVELS; l++) {
+			for (int s = 0; s < SLOTS; s++) {
+				wheels[l][s] = new ArrayList<Timeout>();
+			}
+		}
+		this.startNanos = System.nanoTime();
+		this.worker = new Thread(this::run, name);
+		this.worker.start();
+	}
+
+	/**
+	 * Schedules a periodic timer.
+	 * @param initialDelayMs Delay before the first run.
+	 * @param periodMs Period between runs, 0 for a single run.
+	 * @param action Receives the time (System.nanoTime) at which the run was due.
+	 * @return Timeout. Handle to cancel the timer.
+	 */
+	public Timeout schedule(long initialDelayMs, long periodMs, LongConsumer action) {
+		long nowMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+		Timeout t = new Timeout(nowMs + Math.max(0, initialDelayMs), Math.max(0, periodMs), action);
+		timers.incrementAndGet();
+		added.add(t);
+		return t;
+	}
+
+	public void stop() {
+		stopped = true;
+		LockSupport.unpark(worker);
+	}
+
+	private void run() {
+		while (!stopped) {
+			long nextTickNanos = startNanos + TimeUnit.MILLISECONDS.toNanos((currentTick + 1) * tickMs);
+			long wait = nextTickNanos - System.nanoTime();
+			if (wait > 0) {
+				LockSupport.parkNanos(this, wait);
+				continue;
+			}
+			long lagMs = TimeUnit.NANOSECONDS.toMillis(-wait);
+			if (lagMs > maxTickLagMs) {
+				maxTickLagMs = lagMs;
+			}
+			try {
+				tick();
+			} catch (RuntimeException e) {
+				LOG.error("Timer wheel tick failed", e);
+			}
+		}
+	}
+
+	/* Advances one tick: takes new timers, cascades, fires the due ones */
+	private void tick() {
+		currentTick+=1;
+		Timeout t;
+		while ((t = added.poll()) != null) {
+			insert(t);
+		}
+		// cascade from the highest level that wraps on this tick
+		int top = 0;
+		while (top < LEVELS - 1 && (currentTick & ((1L << (SLOT_BITS * (top + 1))) - 1)) == 0) {
+			top+=1;
+		}
+		for (int l = top; l >= 1; l--) {
+			List<Timeout> slot = wheels[l][(int) ((currentTick >>> (SLOT_BITS * l)) & MASK)];
+			List<Timeout> moved = new ArrayList<Timeout>(slot);
+			slot.clear();
+			for (Timeout m : moved) {
+				insert(m);
+			}
+		}
+		// all timers due now, in one pass
+		List<Timeout> due = wheels[0][(int) (currentTick & MASK)];
+		if (due.isEmpty()) {
+			return;
+		}
+		List<Timeout> batch = new ArrayList<Timeout>(due);
+		due.clear();
+		expiring = true;
+		for (Timeout d : batch) {
+			if (d.cancelled) {
+				timers.decrementAndGet();
+				continue;
+			}
+			d.action.accept(startNanos + TimeUnit.MILLISECONDS.toNanos(d.deadlineMs));
+			fired+=1;
+			if (d.periodMs > 0 && !d.cancelled) {
+				d.deadlineMs += d.periodMs;
+				insert(d);
+			} else {
+				timers.decrementAndGet();
+			}
+		}
+		expiring = false;
+	}
+
+	private void insert(Timeout t) {
+		if (t.cancelled) {
+			timers.decrementAndGet();
+			return;
+		}
+		// ticks are rounded up, a timer never fires early
+		long deadline = (t.deadlineMs + tickMs - 1) / tickMs;
+		// due or late: fired in this tick, or the next one if this slot was already taken
+		if (deadline <= currentTick) {
+			deadline = expiring ? currentTick + 1 : currentTick;
+		}
+		long delta = Math.min(deadline - currentTick, MAX_TICKS - 1);
+		int level = 0;
+		while (delta >= (1L << (SLOT_BITS * (level + 1)))) {
+			level+=1;
+		}
+		long slotTick = currentTick + delta;
+		wheels[level][(int) ((slotTick >>> (SLOT_BITS * level)) & MASK)].add(t);
+	}
+
+	public JsonObject stats() {
+		return new JsonObject()
+			.put("tickMs", tickMs)
+			.put("timers", timers.get())
+			.put("fired", fired)
+			.put("maxTickLagMs", maxTickLagMs);
+	}
+
+	/*
+	 * A scheduled timer, cancelled lazily when the wheel reaches it
+	 */
+	public static class Timeout {
+		final long periodMs;
+		final LongConsumer action;
+		long deadlineMs;
+		volatile boolean cancelled = false;
+
+		Timeout(long deadlineMs, long periodMs, LongConsumer action) {
+			this.deadlineMs = deadlineMs;
+			this.periodMs = periodMs;
+			this.action = action;
+		}
+
+		public void cancel() {
+			cancelled = true;
+		}
+	}
+}
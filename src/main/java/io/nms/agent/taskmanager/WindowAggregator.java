@@ -0,0 +1,211 @@
+package io.nms.agent.taskmanager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.nms.agent.message.ResultTable;
+import io.nms.agent.message.ResultTable.ColumnType;
+
+/*
+ * Aggregates the samples of a task over a window, published once per window
+ * The rows of the samples are series told apart by their string columns
+ * (e.g., the interface name), kept as is. Each numeric column becomes
+ * <column>.min, .max, .mean, .last, .count and one .p<quantile> per quantile,
+ * e.g., bytesrcvd.kbps.p99, from a QuantileSketch per series and column.
+ * Series without values in a window are dropped. Not thread-safe.
+ */
+public class WindowAggregator {
+	public final static String DEFAULT_QUANTILES = "0.5,0.9,0.99";
+
+	private final static String[] STATS = {"min", "max", "mean", "last", "count"};
+
+	private final long windowNanos;
+	private final double[] quantiles;
+	// columns of the samples
+	private final int[] keyColumns;
+	private final int[] valueColumns;
+	private final ResultTable table;
+
+	private final Map<String, Series> series = new LinkedHashMap<String, Series>();
+	private final List<Series> pool = new ArrayList<Series>();
+	private final StringBuilder key = new StringBuilder();
+	private long windowEndNanos = 0;
+
+	/**
+	 * Creates the aggregates of the samples of a table.
+	 * @param sample The table of the samples.
+	 * @param quantiles The quantiles to publish, in ]0, 1[.
+	 * @param windowMs The window, i.e., the publication period.
+	 */
+	public WindowAggregator(ResultTable sample, double[] quantiles, long windowMs) {
+		this.windowNanos = windowMs * 1000000L;
+		this.quantiles = quantiles;
+		List<Integer> keys = new ArrayList<Integer>();
+		List<Integer> values = new ArrayList<Integer>();
+		List<String> columns = new ArrayList<String>();
+		Map<String, ColumnType> types = new HashMap<String, ColumnType>();
+		for (int c = 0; c < sample.getColumnCount(); c++) {
+			String name = sample.getColumnName(c);
+			if (sample.getColumnType(c) == ColumnType.STRING) {
+				keys.add(c);
+				columns.add(name);
+				continue;
+			}
+			values.add(c);
+			for (String stat : STATS) {
+				columns.add(name + "." + stat);
+				types.put(name + "." + stat, stat.equals("count") ? ColumnType.LONG : ColumnType.DOUBLE);
+			}
+			for (double q : quantiles) {
+				columns.add(name + "." + quantileName(q));
+				types.put(name + "." + quantileName(q), ColumnType.DOUBLE);
+			}
+		}
+		this.keyColumns = keys.stream().mapToInt(Integer::intValue).toArray();
+		this.valueColumns = values.stream().mapToInt(Integer::intValue).toArray();
+		this.table = new ResultTable(columns, types);
+	}
+
+	/**
+	 * Parses a list of quantiles.
+	 * @param list Comma separated quantiles, e.g., "0.5,0.99".
+	 * @return double[]. The quantiles.
+	 * @throws IllegalArgumentException If a quantile is not a number in ]0, 1[.
+	 */
+	public static double[] parseQuantiles(String list) {
+		String[] items = list.split(",");
+		double[] q = new double[items.length];
+		for (int i = 0; i < items.length; i++) {
+			q[i] = Double.parseDouble(items[i].trim());
+			if (!(q[i] > 0 && q[i] < 1)) {
+				throw new IllegalArgumentException("quantile not in ]0, 1[: " + items[i]);
+			}
+		}
+		return q;
+	}
+
+	// 0.5 is p50, 0.999 is p99.9
+	static String quantileName(double q) {
+		String s = Double.toString(q * 100);
+		if (s.endsWith(".0")) {
+			s = s.substring(0, s.length() - 2);
+		}
+		return "p" + s;
+	}
+
+	/**
+	 * Adds the rows of a sample.
+	 * @param sample The sample, with the columns given at creation.
+	 * @param nowNanos The time of the sample, from System.nanoTime().
+	 * @param periodNanos The sampling period, windows end within half of it.
+	 * @return boolean. True if the window ended: the table holds its aggregates.
+	 */
+	public boolean add(ResultTable sample, long nowNanos, long periodNanos) {
+		if (windowEndNanos == 0) {
+			windowEndNanos = nowNanos + windowNanos;
+		}
+		for (int r = 0; r < sample.getRowCount(); r++) {
+			Series s = series(sample, r);
+			for (int v = 0; v < valueColumns.length; v++) {
+				int c = valueColumns[v];
+				s.sketches[v].add((sample.getColumnType(c) == ColumnType.LONG)
+						? sample.getLong(r, c) : sample.getDouble(r, c));
+			}
+			s.samples+=1;
+		}
+		if (nowNanos < windowEndNanos - periodNanos / 2) {
+			return false;
+		}
+		windowEndNanos += windowNanos;
+		if (windowEndNanos <= nowNanos) {
+			windowEndNanos = nowNanos + windowNanos;
+		}
+		flush();
+		return true;
+	}
+
+	private Series series(ResultTable sample, int row) {
+		String k;
+		if (keyColumns.length == 0) {
+			k = "";
+		} else if (keyColumns.length == 1) {
+			k = sample.getString(row, keyColumns[0]);
+		} else {
+			key.setLength(0);
+			for (int c : keyColumns) {
+				key.append(sample.getString(row, c)).append('\0');
+			}
+			k = key.toString();
+		}
+		Series s = series.get(k);
+		if (s == null) {
+			s = pool.isEmpty() ? new Series(valueColumns.length) : pool.remove(pool.size() - 1);
+			s.keys = new String[keyColumns.length];
+			for (int i = 0; i < keyColumns.length; i++) {
+				s.keys[i] = sample.getString(row, keyColumns[i]);
+			}
+			series.put(k, s);
+		}
+		return s;
+	}
+
+	// one row per series, in the order of the columns of the samples
+	private void flush() {
+		table.clear();
+		Iterator<Series> it = series.values().iterator();
+		while (it.hasNext()) {
+			Series s = it.next();
+			if (s.samples == 0) {
+				it.remove();
+				pool.add(s);
+				continue;
+			}
+			int row = table.addRow();
+			int col = 0;
+			int k = 0;
+			int v = 0;
+			while (k < keyColumns.length || v < valueColumns.length) {
+				if (v >= valueColumns.length || (k < keyColumns.length && keyColumns[k] < valueColumns[v])) {
+					table.setString(row, col++, s.keys[k++]);
+					continue;
+				}
+				QuantileSketch sk = s.sketches[v++];
+				table.setDouble(row, col++, sk.getMin());
+				table.setDouble(row, col++, sk.getMax());
+				table.setDouble(row, col++, sk.getMean());
+				table.setDouble(row, col++, sk.getLast());
+				table.setLong(row, col++, sk.getCount());
+				for (double q : quantiles) {
+					table.setDouble(row, col++, sk.quantile(q));
+				}
+				sk.clear();
+			}
+			s.samples = 0;
+		}
+	}
+
+	/* The aggregates of the last window */
+	public ResultTable getTable() {
+		return table;
+	}
+
+	/*
+	 * Values of one series in the current window
+	 */
+	private static class Series {
+		final QuantileSketch[] sketches;
+		String[] keys;
+		long samples = 0;
+
+		Series(int values) {
+			sketches = new QuantileSketch[values];
+			for (int i = 0; i < values; i++) {
+				sketches[i] = new QuantileSketch();
+			}
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package io.nms.agent.sysinfo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import io.nms.agent.message.ResultTable;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/*
+ * Drives the persistent session through a fake osqueryi:
+ * a shell script answering each line of stdin like "osqueryi --json"
+ */
+public class OsqueryBridgeTest {
+	private final static long TIMEOUT_MS = 1000;
+
+	private final static String FAKE_OSQUERYI =
+		"while IFS= read -r q; do\n"
+		+ "  case \"$q\" in\n"
+		+ "    *__osquery_bridge_end*) echo '[{\"__osquery_bridge_end\":\"1\"}]' ;;\n"
+		+ "    *hang*) sleep 30 ;;\n"
+		+ "    *bad*) echo 'Error: near \"bad\": syntax error' >&2 ;;\n"
+		+ "    *) echo '[{\"pid\":\"1\",\"name\":\"init\"},{\"pid\":\"2\",\"name\":\"kthreadd\",\"extra\":\"x\"}]' ;;\n"
+		+ "  esac\n"
+		+ "done\n";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private OsqueryBridge bridge;
+	private ResultTable table;
+
+	@Before
+	public void setUp() throws IOException {
+		File script = folder.newFile("osqueryi.sh");
+		Files.write(script.toPath(), FAKE_OSQUERYI.getBytes(StandardCharsets.UTF_8));
+		JsonObject osquery = new JsonObject()
+			.put("command", new JsonArray().add("sh").add(script.getAbsolutePath()))
+			.put("timeoutMs", TIMEOUT_MS)
+			.put("restartDelayMs", 0);
+		bridge = new OsqueryBridge();
+		bridge.configure(new JsonObject().put("config", new JsonObject().put(OsqueryBridge.CONFIG, osquery)));
+		table = new ResultTable(Arrays.asList("pid", "name"),
+				Collections.singletonMap("pid", ResultTable.ColumnType.LONG));
+	}
+
+	@After
+	public void tearDown() {
+		bridge.stop();
+	}
+
+	@Test
+	public void readsRows() throws IOException {
+		assertEquals(2, bridge.query(bridge.prepare("SELECT pid, name FROM processes"), table));
+		assertEquals(2, table.getRowCount());
+		assertEquals(1, table.getLong(0, 0));
+		assertEquals("init", table.getString(0, 1));
+		assertEquals(2, table.getLong(1, 0));
+		assertEquals("kthreadd", table.getString(1, 1));
+
+		// same session for the next query
+		assertEquals(2, bridge.query(bridge.prepare("SELECT pid, name FROM processes"), table));
+		assertEquals(4, table.getRowCount());
+		assertEquals(1, bridge.stats().getLong("starts").longValue());
+	}
+
+	@Test
+	public void reportsErrorLine() throws IOException {
+		try {
+			bridge.query(bridge.prepare("SELECT bad"), table);
+			fail("error line not reported");
+		} catch (IOException e) {
+			assertEquals("osquery: Error: near \"bad\": syntax error", e.getMessage());
+		}
+		assertEquals(0, table.getRowCount());
+		assertEquals(1, bridge.stats().getLong("failures").longValue());
+
+		// the session is still usable
+		assertEquals(2, bridge.query(bridge.prepare("SELECT pid, name FROM processes"), table));
+		assertEquals(1, bridge.stats().getLong("starts").longValue());
+	}
+
+	@Test
+	public void timesOutAndRestarts() throws IOException {
+		long start = System.currentTimeMillis();
+		try {
+			bridge.query(bridge.prepare("SELECT hang"), table);
+			fail("hanging query not timed out");
+		} catch (IOException e) {
+			assertEquals("osquery: query timed out after " + TIMEOUT_MS + " ms", e.getMessage());
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		assertTrue("timed out after " + elapsed + " ms", elapsed >= TIMEOUT_MS && elapsed < 10 * TIMEOUT_MS);
+		assertEquals(1, bridge.stats().getLong("timeouts").longValue());
+
+		// the next query starts a new session
+		assertEquals(2, bridge.query(bridge.prepare("SELECT pid, name FROM processes"), table));
+		assertEquals(2, bridge.stats().getLong("starts").longValue());
+	}
+
+	@Test
+	public void restartsAfterStop() throws IOException {
+		assertEquals(2, bridge.query(bridge.prepare("SELECT pid, name FROM processes"), table));
+		bridge.stop();
+		assertEquals(2, bridge.query(bridge.prepare("SELECT pid, name FROM processes"), table));
+		assertEquals(2, bridge.stats().getLong("starts").longValue());
+		assertEquals(0, bridge.stats().getLong("failures").longValue());
+	}
+}